@@ -0,0 +1,177 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import dev.ebullient.gameontext.junkyplace.protocol.EventWriter;
+import dev.ebullient.gameontext.junkyplace.protocol.MessageSink;
+
+/**
+ * Runs the ambient events of every room hosted by this process (see the
+ * {@code [ambient]} section of the room definition) on one {@link TimerWheel}.
+ *
+ * <p>
+ * Each event is a timer on the wheel: there is no thread, or scheduled
+ * executor, per room. Every run of an event (including the first) is moved
+ * at random by up to {@code jitter} of its interval, so events with the same
+ * interval, in one room or many, drift apart rather than all firing in the
+ * same tick. Events that do come due in the same tick for the same room are
+ * sent as one broadcast, with one line per event.
+ * <p>
+ * Events don't produce anything while a room is empty. If a room's definition
+ * changes, its events are rescheduled when the change is next noticed
+ * (at most {@link #RECHECK_INTERVAL} later).
+ */
+public class AmbientScheduler implements Closeable {
+
+    static final Duration RECHECK_INTERVAL = Duration.ofSeconds(10);
+
+    final TimerWheel wheel;
+    final double jitter;
+
+    /** Rooms with events due in the current tick: only used on the wheel thread */
+    final List<Registration> due = new ArrayList<>();
+
+    /**
+     * @param name Name of the wheel thread
+     * @param tick Duration of each tick (how precise events are, and how they are batched)
+     * @param wheelSize Number of slots in the wheel
+     * @param jitter Fraction of its interval (0 to 1) by which each run of an event may be moved
+     */
+    public AmbientScheduler(String name, Duration tick, int wheelSize, double jitter) {
+        this.wheel = new TimerWheel(name, tick, wheelSize);
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        wheel.addTickListener(this::flush);
+    }
+
+    /**
+     * Start running a room's ambient events.
+     *
+     * @param sink Where the room's broadcasts are sent
+     * @param events Current ambient events of the room (checked for changes periodically)
+     * @param occupied True if there is anyone in the room to notice
+     * @return registration: close it to stop the room's events
+     */
+    public Registration register(MessageSink sink, Supplier<List<RoomDefinition.Ambient>> events,
+            BooleanSupplier occupied) {
+        Registration r = new Registration(sink, events, occupied);
+        // All of a registration's timers are handled on the wheel thread
+        wheel.schedule(Duration.ZERO, r::recheck);
+        return r;
+    }
+
+    /**
+     * @return how late the most recent tick started, in nanoseconds
+     */
+    public long getTickLag() {
+        return wheel.getTickLag();
+    }
+
+    /**
+     * @return number of timers waiting to run (approximate)
+     */
+    public int size() {
+        return wheel.size();
+    }
+
+    @Override
+    public void close() {
+        wheel.close();
+    }
+
+    /**
+     * @return a delay of about the interval, moved by up to the jitter fraction either way
+     */
+    Duration jittered(Duration interval) {
+        long nanos = interval.toNanos();
+        long spread = (long) (nanos * jitter);
+        if (spread > 0) {
+            nanos += ThreadLocalRandom.current().nextLong(-spread, spread + 1);
+        }
+        return Duration.ofNanos(Math.max(1, nanos));
+    }
+
+    /** Runs after the timers of each tick: one broadcast for each room with events due */
+    void flush() {
+        for (Registration r : due) {
+            try {
+                r.sink.sendMessage(EventWriter.broadcast().all(r.text.toString()).build());
+            } catch (RuntimeException e) {
+                Log.log(Level.WARNING, this, "Unable to send ambient events", e);
+            }
+            r.text.setLength(0);
+        }
+        due.clear();
+    }
+
+    /** Ambient events of one room */
+    public class Registration implements Closeable {
+        final MessageSink sink;
+        final Supplier<List<RoomDefinition.Ambient>> events;
+        final BooleanSupplier occupied;
+
+        /** Text of the events due in this tick */
+        final StringBuilder text = new StringBuilder();
+        List<RoomDefinition.Ambient> scheduled;
+        TimerWheel.Timeout[] timeouts = new TimerWheel.Timeout[0];
+        volatile boolean closed;
+
+        Registration(MessageSink sink, Supplier<List<RoomDefinition.Ambient>> events, BooleanSupplier occupied) {
+            this.sink = sink;
+            this.events = events;
+            this.occupied = occupied;
+        }
+
+        /** Schedule the room's events if they have changed (or haven't been scheduled yet) */
+        void recheck() {
+            if (closed) {
+                return;
+            }
+            List<RoomDefinition.Ambient> current = events.get();
+            if (current != scheduled) {
+                for (TimerWheel.Timeout t : timeouts) {
+                    t.cancel();
+                }
+                scheduled = current;
+                timeouts = new TimerWheel.Timeout[current.size()];
+                for (int i = 0; i < timeouts.length; i++) {
+                    schedule(current, i);
+                }
+            }
+            wheel.schedule(RECHECK_INTERVAL, this::recheck);
+        }
+
+        void schedule(List<RoomDefinition.Ambient> from, int i) {
+            timeouts[i] = wheel.schedule(jittered(from.get(i).getEvery()), () -> fire(from, i));
+        }
+
+        void fire(List<RoomDefinition.Ambient> from, int i) {
+            if (closed || from != scheduled) {
+                return;
+            }
+            if (occupied.getAsBoolean()) {
+                if (text.length() == 0) {
+                    due.add(this);
+                } else {
+                    text.append('\n');
+                }
+                text.append(from.get(i).getText());
+            }
+            schedule(from, i);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for (TimerWheel.Timeout t : timeouts) {
+                t.cancel();
+            }
+        }
+    }
+}
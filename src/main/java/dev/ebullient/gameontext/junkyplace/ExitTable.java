@@ -0,0 +1,152 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.Template;
+
+/**
+ * Exits from the room, found by id, name, or alias (e.g. {@code u}, {@code up},
+ * {@code ladder}).
+ *
+ * <p>
+ * The table is built when the room is loaded. Every key is stored in an
+ * open-addressed array, sized (when possible) so that no two keys share a slot:
+ * a lookup is then one hash (already cached by most strings), one index, and one
+ * {@code equals}. Each exit also keeps the payload of the message that sends a
+ * player through it, encoded ahead of time: leaving the room only has to add
+ * the player's id.
+ */
+public class ExitTable {
+    /** Give up looking for a collision-free size beyond this many slots per key */
+    static final int MAX_SPREAD = 16;
+
+    final String[] keys;
+    final Exit[] values;
+    final int mask;
+    final Collection<Exit> exits;
+
+    /**
+     * @param exits Exits by id
+     * @param aliases Other names for exits: alias to exit id (lower case)
+     * @param departure Message for a player leaving, with a {@code {direction}} slot
+     */
+    ExitTable(Map<String, String> exits, Map<String, String> aliases, Template departure) {
+        List<Exit> list = new ArrayList<>(exits.size());
+        Map<String, Exit> byKey = new LinkedHashMap<>();
+        exits.forEach((id, name) -> {
+            Exit exit = new Exit(id, name, departure.format(name));
+            list.add(exit);
+            byKey.put(id, exit);
+        });
+        // ids win over names, names win over aliases
+        list.forEach(exit -> byKey.putIfAbsent(exit.name, exit));
+        aliases.forEach((alias, id) -> {
+            Exit exit = byKey.get(id);
+            if (exit != null) {
+                byKey.putIfAbsent(alias, exit);
+            }
+        });
+        this.exits = Collections.unmodifiableList(list);
+
+        int size = Integer.highestOneBit(Math.max(1, byKey.size()) * 2 - 1) * 2;
+        while (size < byKey.size() * MAX_SPREAD && !collisionFree(byKey.keySet(), size - 1)) {
+            size *= 2;
+        }
+        this.keys = new String[size];
+        this.values = new Exit[size];
+        this.mask = size - 1;
+        byKey.forEach((k, exit) -> {
+            int i = slot(k);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            values[i] = exit;
+        });
+    }
+
+    /**
+     * @param lowerDirection Exit id, name, or alias (lower case)
+     * @return exit, or null if there is no such exit
+     */
+    public Exit get(String lowerDirection) {
+        int i = slot(lowerDirection);
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(lowerDirection)) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return exits, in the order they were defined
+     */
+    public Collection<Exit> getExits() {
+        return exits;
+    }
+
+    private int slot(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static boolean collisionFree(Collection<String> keys, int mask) {
+        boolean[] used = new boolean[mask + 1];
+        for (String k : keys) {
+            int h = k.hashCode();
+            int i = (h ^ (h >>> 16)) & mask;
+            if (used[i]) {
+                return false;
+            }
+            used[i] = true;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Exit e : exits) {
+            sb.append(sb.length() > 1 ? ", " : "").append(e.id);
+        }
+        return sb.append(']').toString();
+    }
+
+    /** A way out of the room */
+    public static class Exit {
+        final String id;
+        final String name;
+        final String payload;
+
+        Exit(String id, String name, String departure) {
+            this.id = id;
+            this.name = name;
+            this.payload = Message.toExitPayload(id, departure);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param userId Player leaving the room
+         * @return message sending the player through this exit
+         */
+        public Message createExitMessage(String userId) {
+            return Message.createExitMessageFromPayload(userId, payload);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * What the room remembers about each player (e.g. that they have muddy
+ * hands), by userId: up to 64 flags and a fixed number of counters.
+ *
+ * <p>
+ * Players are kept in slots of parallel primitive arrays (flags, counters,
+ * when they left), indexed by an open-addressed table of slot numbers:
+ * there is no object per player other than its userId. Arrays grow as
+ * needed, up to {@code maxPlayers}.
+ * <p>
+ * When a player leaves, their state is kept for {@code ttl} in case they come
+ * back, then evicted. Players who have left are kept in a list ordered by
+ * when they left (linked through the slot arrays), so eviction is done a few
+ * at a time as state is changed, without scanning or a timer. If every slot
+ * is in use, the player who left first is evicted early; if no one has left,
+ * a new player isn't remembered.
+ * <p>
+ * Thread-safe: all methods are synchronized.
+ */
+public class PlayerStates {
+    static final int NONE = -1;
+    static final int INITIAL_SLOTS = 64;
+
+    /** Estimated size of a String (header, fields and array header), not counting characters */
+    static final int STRING_OVERHEAD = 56;
+
+    /** Flag names to bit numbers, shared by all stores and room definitions */
+    static final Map<String, Integer> FLAGS = new HashMap<>();
+
+    final int maxPlayers;
+    final long ttl;
+    final int counters;
+    final LongSupplier clock;
+
+    // Slots
+    String[] userIds;
+    long[] flags;
+    int[] values;
+    long[] leftAt;
+    int[] prev;
+    int[] next;
+    int used;
+    int freeList = NONE;
+    int highWater;
+
+    // Players who have left, oldest first
+    int departedHead = NONE;
+    int departedTail = NONE;
+    int departed;
+
+    /** userId to slot + 1 (0 is empty) */
+    int[] table;
+    long keyBytes;
+
+    long evicted;
+    long rejected;
+
+    /**
+     * @param maxPlayers Most players to remember at once
+     * @param ttl How long to remember players after they leave
+     * @param counters Number of counters for each player
+     * @param clock Source of {@link System#nanoTime()}
+     */
+    public PlayerStates(int maxPlayers, Duration ttl, int counters, LongSupplier clock) {
+        this.maxPlayers = Math.max(1, maxPlayers);
+        this.ttl = ttl.toNanos();
+        this.counters = counters;
+        this.clock = clock;
+        allocate(Math.min(INITIAL_SLOTS, this.maxPlayers));
+    }
+
+    /**
+     * Flags keep their bit for the life of the process, so a room definition
+     * can be compiled against them, and reloading it doesn't change what
+     * players' flags mean.
+     *
+     * @param name Flag name
+     * @return bit number for the flag, or -1 if there are already 64 flags
+     */
+    public static int flag(String name) {
+        synchronized (FLAGS) {
+            Integer bit = FLAGS.get(name);
+            if (bit == null) {
+                if (FLAGS.size() == Long.SIZE) {
+                    return NONE;
+                }
+                bit = FLAGS.size();
+                FLAGS.put(name, bit);
+            }
+            return bit;
+        }
+    }
+
+    /**
+     * A player has entered the room: start remembering them, or stop the
+     * countdown to forgetting them.
+     *
+     * @param userId Player
+     */
+    public synchronized void arrived(String userId) {
+        long now = clock.getAsLong();
+        expire(now);
+        int slot = slot(userId, true, now);
+        if (slot != NONE && leftAt[slot] != 0) {
+            unlinkDeparted(slot);
+        }
+    }
+
+    /**
+     * A player has left the room: they are forgotten once the TTL has passed.
+     *
+     * @param userId Player
+     */
+    public synchronized void left(String userId) {
+        long now = clock.getAsLong();
+        expire(now);
+        int slot = slot(userId, false, now);
+        if (slot != NONE) {
+            if (leftAt[slot] != 0) {
+                unlinkDeparted(slot);
+            }
+            leftAt[slot] = now | 1; // never 0
+            linkDeparted(slot);
+        }
+    }
+
+    /**
+     * @param userId Player
+     * @param bit Flag (see {@link #flag(String)})
+     */
+    public synchronized void setFlag(String userId, int bit) {
+        if (bit < 0 || bit >= Long.SIZE) {
+            return;
+        }
+        long now = clock.getAsLong();
+        expire(now);
+        int slot = slot(userId, true, now);
+        if (slot != NONE) {
+            flags[slot] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param userId Player
+     * @param bit Flag (see {@link #flag(String)})
+     */
+    public synchronized void clearFlag(String userId, int bit) {
+        int slot = find(userId);
+        if (slot != NONE && bit >= 0 && bit < Long.SIZE) {
+            flags[slot] &= ~(1L << bit);
+        }
+    }
+
+    /**
+     * @param userId Player
+     * @return the player's flags, one bit each (0 if the player isn't remembered)
+     */
+    public synchronized long getFlags(String userId) {
+        int slot = find(userId);
+        return slot == NONE ? 0 : flags[slot];
+    }
+
+    /**
+     * @param userId Player
+     * @param counter Counter number (0 to counters - 1)
+     * @return the new value of the counter (0 if the player can't be remembered)
+     */
+    public synchronized int increment(String userId, int counter) {
+        long now = clock.getAsLong();
+        expire(now);
+        int slot = slot(userId, true, now);
+        return slot == NONE ? 0 : ++values[slot * counters + counter];
+    }
+
+    /**
+     * @param userId Player
+     * @param counter Counter number (0 to counters - 1)
+     * @return value of the counter (0 if the player isn't remembered)
+     */
+    public synchronized int getCounter(String userId, int counter) {
+        int slot = find(userId);
+        return slot == NONE ? 0 : values[slot * counters + counter];
+    }
+
+    /**
+     * Forget players who left more than the TTL ago.
+     *
+     * @return number of players forgotten
+     */
+    public synchronized int expire() {
+        return expire(clock.getAsLong());
+    }
+
+    /** @return number of players remembered */
+    public synchronized int size() {
+        return used;
+    }
+
+    /** @return number of players remembered who have left the room */
+    public synchronized int getDeparted() {
+        return departed;
+    }
+
+    /** @return most players remembered at once */
+    public int getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    /** @return players forgotten, because the TTL passed or to make room for someone else */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /** @return players who couldn't be remembered, because everyone remembered was still present */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return estimated heap used by the store, in bytes
+     */
+    public synchronized long estimatedBytes() {
+        long perSlot = 8L + Long.BYTES + Long.BYTES + Integer.BYTES * (2L + counters);
+        return userIds.length * perSlot + table.length * (long) Integer.BYTES + keyBytes;
+    }
+
+    private int expire(long now) {
+        int n = 0;
+        while (departedHead != NONE && now - leftAt[departedHead] >= ttl) {
+            remove(departedHead);
+            n++;
+        }
+        evicted += n;
+        return n;
+    }
+
+    private int find(String userId) {
+        int mask = table.length - 1;
+        for (int i = hash(userId) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int slot = table[i] - 1;
+            if (userIds[slot].equals(userId)) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    /** @return the player's slot, adding them if they aren't there and create is true */
+    private int slot(String userId, boolean create, long now) {
+        int slot = find(userId);
+        if (slot != NONE || !create) {
+            return slot;
+        }
+        if (used == maxPlayers) {
+            if (departedHead == NONE) {
+                rejected++;
+                return NONE;
+            }
+            remove(departedHead);
+            evicted++;
+        }
+        if (freeList == NONE && highWater == userIds.length) {
+            allocate(Math.min(maxPlayers, userIds.length * 2));
+        }
+        if (freeList != NONE) {
+            slot = freeList;
+            freeList = next[slot];
+        } else {
+            slot = highWater++;
+        }
+        userIds[slot] = userId;
+        flags[slot] = 0;
+        leftAt[slot] = 0;
+        Arrays.fill(values, slot * counters, (slot + 1) * counters, 0);
+        index(slot);
+        keyBytes += STRING_OVERHEAD + userId.length();
+        used++;
+        return slot;
+    }
+
+    private void remove(int slot) {
+        if (leftAt[slot] != 0) {
+            unlinkDeparted(slot);
+        }
+        unindex(slot);
+        keyBytes -= STRING_OVERHEAD + userIds[slot].length();
+        userIds[slot] = null;
+        next[slot] = freeList;
+        freeList = slot;
+        used--;
+    }
+
+    private void linkDeparted(int slot) {
+        prev[slot] = departedTail;
+        next[slot] = NONE;
+        if (departedTail == NONE) {
+            departedHead = slot;
+        } else {
+            next[departedTail] = slot;
+        }
+        departedTail = slot;
+        departed++;
+    }
+
+    private void unlinkDeparted(int slot) {
+        if (prev[slot] == NONE) {
+            departedHead = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NONE) {
+            departedTail = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+        leftAt[slot] = 0;
+        departed--;
+    }
+
+    private void index(int slot) {
+        int mask = table.length - 1;
+        int i = hash(userIds[slot]) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    /** Remove a slot from the table, shifting back entries that were displaced past it */
+    private void unindex(int slot) {
+        int mask = table.length - 1;
+        int i = hash(userIds[slot]) & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = hash(userIds[table[j] - 1]) & mask;
+            // leave the entry where it is if its home is cyclically in (i, j]
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private void allocate(int slots) {
+        if (userIds != null && slots == userIds.length) {
+            return;
+        }
+        userIds = userIds == null ? new String[slots] : Arrays.copyOf(userIds, slots);
+        flags = flags == null ? new long[slots] : Arrays.copyOf(flags, slots);
+        values = values == null ? new int[slots * counters] : Arrays.copyOf(values, slots * counters);
+        leftAt = leftAt == null ? new long[slots] : Arrays.copyOf(leftAt, slots);
+        prev = prev == null ? new int[slots] : Arrays.copyOf(prev, slots);
+        next = next == null ? new int[slots] : Arrays.copyOf(next, slots);
+
+        // at most half full
+        table = new int[Integer.highestOneBit(slots * 2 - 1) * 2];
+        for (int s = 0; s < highWater; s++) {
+            if (userIds[s] != null) {
+                index(s);
+            }
+        }
+    }
+
+    static int hash(String userId) {
+        int h = userId.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
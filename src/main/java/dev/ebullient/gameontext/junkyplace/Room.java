@@ -1,15 +1,36 @@
 package dev.ebullient.gameontext.junkyplace;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
-import javax.websocket.Session;
+import javax.inject.Inject;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dev.ebullient.gameontext.junkyplace.protocol.EventWriter;
+import dev.ebullient.gameontext.junkyplace.protocol.FlightEvents;
 import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.MessageSink;
 import dev.ebullient.gameontext.junkyplace.protocol.RoomEndpoint;
+import dev.ebullient.gameontext.junkyplace.protocol.SlowLog;
+import dev.ebullient.gameontext.junkyplace.protocol.Template;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
  * Here is where your room implementation lives.
@@ -19,6 +40,9 @@ import dev.ebullient.gameontext.junkyplace.protocol.RoomEndpoint;
  * <p>
  * The WebSocket endpoint is defined in {@link RoomEndpoint}, with
  * {@link Message} as the text-based payload being sent on the wire.
+ * Outbound messages are sent through a {@link MessageSink}, so the room
+ * doesn't depend on which WebSocket implementation is in use, or on
+ * WebSockets at all (see {@link #standalone()}).
  * <p>
  * This is an ApplicationScoped CDI bean, which means it will be started when
  * the server/application starts, and stopped when it stops.
@@ -27,66 +51,279 @@ import dev.ebullient.gameontext.junkyplace.protocol.RoomEndpoint;
 public class Room {
     /** The id of the room: you can retrieve this from the room editing view in the UI */
     public static final String LOOK_UNKNOWN = "It doesn't look interesting";
-    public static final String UNKNOWN_COMMAND = "This room is a basic model. It doesn't understand `%s`";
+    public static final Template UNKNOWN_COMMAND = Template.compile(
+            "This room is a basic model. It doesn't understand `{command}`", "command");
     public static final String UNSPECIFIED_DIRECTION = "You didn't say which way you wanted to go.";
-    public static final String UNKNOWN_DIRECTION = "There isn't a door in that direction (%s)";
-    public static final String GO_FORTH = "You head %s";
-    public static final String HELLO_ALL = "%s is here";
+    public static final Template UNKNOWN_DIRECTION = Template.compile(
+            "There isn't a door in that direction ({direction})", "direction");
+    public static final Template GO_FORTH = RoomDefinition.GO_FORTH;
+    public static final Template HELLO_ALL = Template.compile("{username} is here", "username");
     public static final String HELLO_USER = "Welcome!";
-    public static final String GOODBYE_ALL = "%s has gone";
+    public static final Template GOODBYE_ALL = Template.compile("{username} has gone", "username");
     public static final String GOODBYE_USER = "Bye!";
+    public static final String USE_UNKNOWN = "You have no idea how to use that";
+    public static final String WHISPER_UNSPECIFIED = "Who do you want to whisper to? Try /whisper <name> <message>";
+    public static final Template WHISPER_UNKNOWN = Template.compile("There is no one called {name} here", "name");
+    public static final Template WHISPER_EMPTY = Template.compile("What do you want to whisper to {name}?", "name");
+    public static final Template WHISPER_TO = Template.compile("You whisper to {name}: {message}", "name", "message");
+    public static final Template WHISPER_FROM = Template.compile("{username} whispers: {message}", "username", "message");
+    public static final String EMOTE_UNSPECIFIED = "What do you want to do? Try /emote waves";
+    public static final Template EMOTE = Template.compile("{username} {action}", "username", "action");
+    public static final String LOOK_SELF = "You look the same as ever.";
+    public static final Template LOOK_SELF_VISITS = Template.compile("You have been here {visits} times.", "visits");
+
+    /**
+     * Room content bundled with the application. This is built (and encoded) during
+     * static initialization, which happens when the native image is built: a cold start
+     * doesn't pay for it.
+     */
+    static final RoomDefinition BUNDLED_DEFINITION = RoomDefinition.fromResource("/junkyplace.room");
+    static final RoomVersion BUNDLED_VERSION = RoomVersion.first(BUNDLED_DEFINITION);
+
+    /** Room definition file to use instead of the bundled one. It is reloaded when it changes. */
+    @ConfigProperty(name = "junkyplace.room.definition")
+    Optional<String> definitionFile;
+
+    @ConfigProperty(name = "junkyplace.room.reload-interval", defaultValue = "10s")
+    Duration reloadInterval;
+
+    /** Ambient events (see {@link AmbientScheduler}) */
+    @ConfigProperty(name = "junkyplace.ambient.enabled", defaultValue = "true")
+    boolean ambientEnabled;
+
+    @ConfigProperty(name = "junkyplace.ambient.tick", defaultValue = "250ms")
+    Duration ambientTick;
+
+    @ConfigProperty(name = "junkyplace.ambient.jitter", defaultValue = "0.2")
+    double ambientJitter;
+
+    /** The slowest messages handled and sent (see {@link SlowLog}) */
+    @ConfigProperty(name = "junkyplace.slow-log.size", defaultValue = "32")
+    int slowLogSize;
+
+    @ConfigProperty(name = "junkyplace.slow-log.window", defaultValue = "60s")
+    Duration slowLogWindow;
+
+    @Inject
+    RoomState state;
+
+    @Inject
+    MeterRegistry registry;
+
+    /** Current room definition, and what players have been told about it */
+    protected volatile RoomVersion version = BUNDLED_VERSION;
+
+    /** Endpoints the room sends to on its own (rather than in reply to a player) */
+    final List<MessageSink> attached = new CopyOnWriteArrayList<>();
 
-    protected RoomDescription roomDescription = new RoomDescription();
+    private FileTime definitionModified;
+    private ScheduledExecutorService reloader;
+    private AmbientScheduler ambient;
+    private SlowLog slowLog = new SlowLog(32, Duration.ofSeconds(60), System::nanoTime);
+
+    /**
+     * Create a room that isn't managed by CDI, for driving it directly (see
+     * {@link RoomSimulation} and {@link TrafficReplay}): it uses the bundled
+     * definition, keeps state only in memory, and has no ambient events.
+     *
+     * @return a new room
+     */
+    public static Room standalone() {
+        Room room = new Room();
+        room.state = new RoomState();
+        return room;
+    }
 
     @PostConstruct
     protected void postConstruct() {
-        Log.log(Level.INFO, this, "Room initialized: {0}", roomDescription);
+        if (definitionFile.isPresent()) {
+            Path path = Paths.get(definitionFile.get());
+            reloadDefinition(path);
+
+            reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "junkyplace-definition-reload");
+                t.setDaemon(true);
+                return t;
+            });
+            long interval = reloadInterval.toMillis();
+            reloader.scheduleWithFixedDelay(() -> reloadDefinition(path), interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (ambientEnabled) {
+            ambient = new AmbientScheduler("junkyplace-ambient", ambientTick, 512, ambientJitter);
+            registry.gauge("junkyplace.ambient.tick-lag", ambient, a -> a.getTickLag() / 1e9);
+            registry.gauge("junkyplace.ambient.timers", ambient, AmbientScheduler::size);
+        }
+        PlayerStates players = state.getPlayerStates();
+        registry.gauge("junkyplace.player-state.players", players, PlayerStates::size);
+        registry.gauge("junkyplace.player-state.departed", players, PlayerStates::getDeparted);
+        registry.gauge("junkyplace.player-state.max-players", players, PlayerStates::getMaxPlayers);
+        registry.gauge("junkyplace.player-state.bytes", players, PlayerStates::estimatedBytes);
+        registry.gauge("junkyplace.player-state.evicted", players, PlayerStates::getEvicted);
+        registry.gauge("junkyplace.player-state.rejected", players, PlayerStates::getRejected);
+        slowLog = new SlowLog(slowLogSize, slowLogWindow, System::nanoTime);
+        registry.gauge("junkyplace.slow-log.recorded", slowLog, SlowLog::getRecorded);
+        Log.log(Level.INFO, this, "Room initialized: {0}", version.definition);
     }
 
     @PreDestroy
     protected void preDestroy() {
         Log.log(Level.FINE, this, "Room to be destroyed");
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+        if (ambient != null) {
+            ambient.close();
+        }
+    }
+
+    /**
+     * Attach an endpoint: the room uses it to send ambient events, and to tell
+     * players in the room when it changes. Ambient events only happen while
+     * there are players in the room.
+     *
+     * @param endpoint Where to send messages that aren't replies to a player
+     */
+    public void attach(MessageSink endpoint) {
+        attached.add(endpoint);
+        if (ambient != null) {
+            ambient.register(endpoint, () -> version.definition.getAmbient(), () -> !state.getPlayers().isEmpty());
+        }
     }
 
-    public void handleMessage(Session session, Message message, RoomEndpoint endpoint) {
+    /**
+     * Load the room definition from a file if it has changed since it was
+     * last read. If the file can't be read, the current definition is kept.
+     * Players in the room are only told what changed (see {@link RoomVersion}).
+     *
+     * @param path Room definition file
+     */
+    void reloadDefinition(Path path) {
+        try {
+            FileTime modified = Files.getLastModifiedTime(path);
+            if (!modified.equals(definitionModified)) {
+                RoomVersion next = version.next(RoomDefinition.load(path));
+                version = next;
+                definitionModified = modified;
+                Log.log(Level.INFO, this, "Room definition loaded from {0}: {1} {2}", path, next, next.definition);
+
+                if (next.getDelta() != null && !state.getPlayers().isEmpty()) {
+                    Message update = Message.createLocationDeltaMessage(next.getDelta());
+                    attached.forEach(endpoint -> endpoint.sendMessage(update));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.log(Level.WARNING, this, "Unable to load room definition from " + path, e);
+        }
+    }
 
+    public void handleMessage(Message message, MessageSink endpoint) {
+        FlightEvents.Handle event = new FlightEvents.Handle();
+        event.begin();
+        long started = slowLog.now();
+        try {
+            dispatch(message, endpoint);
+        } finally {
+            long elapsed = slowLog.now() - started;
+            if (slowLog.isSlow(elapsed)) {
+                // recipients: everyone a broadcast in reply would reach
+                slowLog.record(SlowLog.Kind.HANDLE, message.getTarget().name(), verb(message), userId(message),
+                        elapsed, message.getPayloadSize(), state.getPlayers().size());
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.target = message.getTarget().name();
+                event.verb = verb(message);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @return the slowest messages handled (and sent, by endpoints that record them) recently
+     */
+    public SlowLog getSlowLog() {
+        return slowLog;
+    }
+
+    /**
+     * @return the command (e.g. /go), "chat", or the message target: used to label flight recorder events
+     */
+    private static String verb(Message message) {
+        if (message.getTarget() != Message.Target.room) {
+            return message.getTarget().name();
+        }
+        Message.ClientMessage clientMsg = message.getParsedBody();
+        if (clientMsg == null || clientMsg.content == null || clientMsg.content.isEmpty()) {
+            return "";
+        }
+        if (clientMsg.content.charAt(0) != '/') {
+            return "chat";
+        }
+        int space = clientMsg.content.indexOf(' ');
+        return clientMsg.content.substring(0, space < 0 ? clientMsg.content.length() : space).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return the player an inbound message is from (null if it isn't from a player)
+     */
+    private static String userId(Message message) {
+        Object body = message.getParsedBody();
+        if (body instanceof Message.ClientMessage) {
+            return ((Message.ClientMessage) body).userId;
+        }
+        if (body instanceof Message.MediatorRoomHello) {
+            return ((Message.MediatorRoomHello) body).userId;
+        }
+        if (body instanceof Message.MediatorRoomGoodbye) {
+            return ((Message.MediatorRoomGoodbye) body).userId;
+        }
+        return null;
+    }
+
+    private void dispatch(Message message, MessageSink endpoint) {
         // Who doesn't love switch on strings in Java 8?
         switch (message.getTarget()) {
             case roomHello:
                 Message.MediatorRoomHello helloMsg = message.getParsedBody();
+                state.playerArrived(helloMsg.userId, helloMsg.username);
+                state.getPlayerStates().increment(helloMsg.userId, RoomState.VISITS);
 
                 // Send location message
-                endpoint.sendMessage(session, Message.createLocationMessage(helloMsg.userId, roomDescription));
+                endpoint.sendMessage(Message.createLocationMessage(helloMsg.userId, version.getSnapshot()));
 
                 // Say hello to a new person in the room
-                endpoint.sendMessage(session,
-                        Message.createBroadcastEvent(String.format(HELLO_ALL, helloMsg.username), helloMsg.userId, HELLO_USER));
+                endpoint.sendMessage(EventWriter.broadcast()
+                        .all(HELLO_ALL, helloMsg.username)
+                        .user(helloMsg.userId, HELLO_USER)
+                        .build());
                 break;
 
             case roomJoin:
                 Message.MediatorRoomHello joinMsg = message.getParsedBody();
+                state.playerArrived(joinMsg.userId, joinMsg.username);
 
                 // Send location message
-                endpoint.sendMessage(session, Message.createLocationMessage(joinMsg.userId, roomDescription));
+                endpoint.sendMessage(Message.createLocationMessage(joinMsg.userId, version.getSnapshot()));
                 break;
 
             case roomGoodbye:
                 Message.MediatorRoomGoodbye goodbyeMsg = message.getParsedBody();
+                state.playerLeft(goodbyeMsg.userId);
 
                 // Say goodbye to person leaving the room
-                endpoint.sendMessage(session,
-                        Message.createBroadcastEvent(String.format(GOODBYE_ALL, goodbyeMsg.username), goodbyeMsg.userId,
-                                GOODBYE_USER));
+                endpoint.sendMessage(EventWriter.broadcast()
+                        .all(GOODBYE_ALL, goodbyeMsg.username)
+                        .user(goodbyeMsg.userId, GOODBYE_USER)
+                        .build());
 
                 break;
 
             case room:
                 Message.ClientMessage clientMsg = message.getParsedBody();
                 if (clientMsg.content.charAt(0) == '/') {
-                    processCommand(clientMsg.userId, clientMsg.username, clientMsg.content, endpoint, session);
+                    processCommand(clientMsg.userId, clientMsg.username, clientMsg.content, endpoint);
                 } else {
-                    endpoint.sendMessage(session,
-                            Message.createChatMessage(clientMsg.username, clientMsg.content));
+                    endpoint.sendMessage(Message.createChatMessage(clientMsg.username, clientMsg.content));
                 }
                 break;
 
@@ -96,9 +333,11 @@ public class Room {
         }
     }
 
-    private void processCommand(String userId, String username, String content, RoomEndpoint endpoint, Session session) {
+    private void processCommand(String userId, String username, String content, MessageSink endpoint) {
         // Work mostly off of lower case.
         String contentToLower = content.toLowerCase(Locale.ENGLISH).trim();
+        RoomVersion version = this.version;
+        RoomDefinition definition = version.definition;
 
         String firstWord;
         String remainder;
@@ -116,21 +355,18 @@ public class Room {
             case "/go":
                 // See RoomCommandsTest#testHandle*Go*
                 // Always process the /go command.
-                String exitId = getExitId(remainder);
+                ExitTable.Exit exit = remainder == null ? null : definition.getExit(remainder);
 
-                if (exitId == null) {
+                if (exit == null) {
                     // Send error only to source session
                     if (remainder == null) {
-                        endpoint.sendMessage(session,
-                                Message.createSpecificEvent(userId, UNSPECIFIED_DIRECTION));
+                        endpoint.sendMessage(Message.createSpecificEvent(userId, UNSPECIFIED_DIRECTION));
                     } else {
-                        endpoint.sendMessage(session,
-                                Message.createSpecificEvent(userId, String.format(UNKNOWN_DIRECTION, remainder)));
+                        endpoint.sendMessage(EventWriter.to(userId).user(userId, UNKNOWN_DIRECTION, remainder).build());
                     }
                 } else {
-                    // Allow the exit
-                    endpoint.sendMessage(session,
-                            Message.createExitMessage(userId, exitId, String.format(GO_FORTH, prettyDirection(exitId))));
+                    // Allow the exit: the message was prepared when the room was loaded
+                    endpoint.sendMessage(exit.createExitMessage(userId));
                 }
                 break;
 
@@ -140,87 +376,186 @@ public class Room {
                 if (remainder == null || remainder.contains("room")) {
                     // This is looking at or examining the entire room. Send the player location message,
                     // which includes the room description and inventory
-                    endpoint.sendMessage(session, Message.createLocationMessage(userId, roomDescription));
-
-                } else if (remainder.contains("moon diagram")) {
-                    endpoint.sendMessage(session,
-                            Message.createBroadcastEvent(
-                                    username + " picks up the moon diagram and looks at it fondly before dropping it again",
-                                    userId, "You pick it up, read it, and love it for no reason. You put it down."));
+                    endpoint.sendMessage(Message.createLocationMessage(userId, version.getSnapshot()));
 
-                } else if (remainder.contains("mud")) {
-                    endpoint.sendMessage(session,
-                            Message.createBroadcastEvent(username + " is disgusted by mud on the floor",
-                                    userId, "It looks awful. You look away."));
-
-                } else if (remainder.contains("teddy")) {
-                    endpoint.sendMessage(session,
-                            Message.createBroadcastEvent("The teddy bear burps, 'Hello'"));
-
-                } else if (remainder.contains("books")) {
-                    endpoint.sendMessage(session,
-                            Message.createBroadcastEvent(username + " is confused by the bookshelf",
-                                    userId, "It's a bit odd"));
+                } else if (remainder.equals("me") || remainder.equals("myself")) {
+                    endpoint.sendMessage(Message.createSpecificEvent(userId, describePlayer(userId, definition)));
 
                 } else {
-                    endpoint.sendMessage(session, Message.createSpecificEvent(userId, LOOK_UNKNOWN));
+                    RoomDefinition.Interaction look = definition.findInteraction("look", remainder,
+                            state.getPlayerStates().getFlags(userId));
+                    if (look == null) {
+                        endpoint.sendMessage(Message.createSpecificEvent(userId, LOOK_UNKNOWN));
+                    } else {
+                        respond(userId, username, look, endpoint);
+                    }
                 }
                 break;
 
             case "/use":
                 // Custom command!
-
-                if (remainder != null) {
-                    if (remainder.contains("teddy")) {
-                        endpoint.sendMessage(session,
-                                Message.createBroadcastEvent(
-                                        "The teddy bear squeaks! " + username
-                                                + " looks around sheepishly, and sets the teddy back down.",
-                                        userId,
-                                        "You pick up the teddy and put it in your mouth. It squeaks!! You quickly put it back down."));
-                        break;
-                    } else if (remainder.contains("mud")) {
-                        endpoint.sendMessage(session,
-                                Message.createBroadcastEvent(username + " has very dirty hands.",
-                                        userId,
-                                        "You pat the big pile of mud. It's very sticky, and now it's all over your hands!"));
-                        break;
-                    } else if (remainder.contains("moon diagram")) {
-                        endpoint.sendMessage(session,
-                                Message.createBroadcastEvent(username
-                                        + " picks up the moon diagram, and scrunches it into a ball! After a brief moment, "
-                                        + username
-                                        + " smiles, smoothes it out again, and lets the diagram float back to the floor",
-                                        userId,
-                                        "You grab the moon diagram and crumple it into a ball. Hey! That looks like a moon! How satisfying! You unfold it, and let it go."));
-                        break;
-                    } else if (remainder.contains("book")) {
-                        endpoint.sendMessage(session,
-                                Message.createExitMessage(userId, "w",
-                                        "You take a book down from the shelf, but it vanishes in your hand. Hey.. what? .. You're going west!"));
-                        break;
-                    }
+                RoomDefinition.Interaction use = remainder == null ? null
+                        : definition.findInteraction("use", remainder, state.getPlayerStates().getFlags(userId));
+                if (use == null) {
+                    endpoint.sendMessage(Message.createSpecificEvent(userId, USE_UNKNOWN));
+                } else {
+                    respond(userId, username, use, endpoint);
                 }
-                endpoint.sendMessage(session, Message.createSpecificEvent(userId, "You have no idea how to use that"));
+                break;
 
+            case "/whisper":
+                whisper(userId, username, content, remainder, endpoint);
+                break;
+
+            case "/emote":
+                if (remainder == null) {
+                    endpoint.sendMessage(Message.createSpecificEvent(userId, EMOTE_UNSPECIFIED));
+                } else {
+                    endpoint.sendMessage(EventWriter.broadcast()
+                            .all(EMOTE, username, originalCase(content, remainder))
+                            .build());
+                }
                 break;
 
             case "/about":
+                endpoint.sendMessage(EventWriter.to(userId).user(userId, definition.getIndex().getAbout(), null).build());
+                break;
 
+            case "/help":
+                Template help = definition.getIndex().getHelp(remainder);
+                if (help == null) {
+                    endpoint.sendMessage(EventWriter.to(userId).user(userId, RoomIndex.NO_HELP, remainder).build());
+                } else {
+                    endpoint.sendMessage(EventWriter.to(userId).user(userId, help, null).build());
+                }
                 break;
 
             default:
-                endpoint.sendMessage(session,
-                        Message.createSpecificEvent(userId, String.format(UNKNOWN_COMMAND, content)));
+                endpoint.sendMessage(EventWriter.to(userId).user(userId, UNKNOWN_COMMAND, content).build());
                 break;
         }
     }
 
+    /**
+     * Whisper to another player: only they (and the player whispering) are sent
+     * the message. The recipient's name can contain spaces: the longest name of
+     * a player in the room that the text starts with is used.
+     */
+    private void whisper(String userId, String username, String content, String remainder, MessageSink endpoint) {
+        if (remainder == null) {
+            endpoint.sendMessage(Message.createSpecificEvent(userId, WHISPER_UNSPECIFIED));
+            return;
+        }
+        String recipient = state.findPlayer(remainder);
+        if (recipient != null) {
+            endpoint.sendMessage(EventWriter.to(userId).user(userId, WHISPER_EMPTY, remainder).build());
+            return;
+        }
+
+        int split = -1;
+        for (int i = remainder.indexOf(' '); i > 0; i = remainder.indexOf(' ', i + 1)) {
+            String id = state.findPlayer(remainder.substring(0, i));
+            if (id != null) {
+                recipient = id;
+                split = i;
+            }
+        }
+        if (recipient == null) {
+            int space = remainder.indexOf(' ');
+            endpoint.sendMessage(EventWriter.to(userId)
+                    .user(userId, WHISPER_UNKNOWN, space < 0 ? remainder : remainder.substring(0, space))
+                    .build());
+            return;
+        }
+
+        String text = originalCase(content, remainder.substring(split + 1).trim());
+        String name = state.getPlayers().getOrDefault(recipient, "");
+        endpoint.sendMessage(EventWriter.to(recipient).user(recipient, WHISPER_FROM, username, text).build());
+        endpoint.sendMessage(EventWriter.to(userId).user(userId, WHISPER_TO, name, text).build());
+    }
+
+    /**
+     * @param content What the player sent
+     * @param lower The end of the lower case command
+     * @return the end of the command as the player wrote it
+     */
+    private static String originalCase(String content, String lower) {
+        String original = content.trim();
+        int start = original.length() - lower.length();
+        // Lower casing can change the length of some (rare) characters: then settle for lower case
+        return start >= 0 && original.regionMatches(true, start, lower, 0, lower.length())
+                ? original.substring(start)
+                : lower;
+    }
+
+    /**
+     * Send the response defined for an item: either send the player through an
+     * exit, or tell everyone (and the player) what happened.
+     */
+    private void respond(String userId, String username, RoomDefinition.Interaction interaction,
+            MessageSink endpoint) {
+        RoomDefinition.Text self = interaction.getSelf();
+
+        if (interaction.getSetsFlag() >= 0) {
+            state.getPlayerStates().setFlag(userId, interaction.getSetsFlag());
+        }
+        if (interaction.getClearsFlag() >= 0) {
+            state.getPlayerStates().clearFlag(userId, interaction.getClearsFlag());
+        }
+
+        if (interaction.getExitId() != null) {
+            endpoint.sendMessage(Message.createExitMessage(userId, interaction.getExitId(),
+                    self == null ? null : self.render(username)));
+        } else if (interaction.getAll() == null) {
+            endpoint.sendMessage(EventWriter.to(userId)
+                    .user(userId, self.getTemplate(), username)
+                    .build());
+        } else {
+            // Item text is rendered directly into the event
+            EventWriter event = EventWriter.broadcast().all(interaction.getAll().getTemplate(), username);
+            if (self != null) {
+                event.user(userId, self.getTemplate(), username);
+            }
+            endpoint.sendMessage(event.build());
+        }
+    }
+
+    /**
+     * @return what the player sees when they look at themselves: the states the room
+     *         remembers them being in, and how often they've been here
+     */
+    private String describePlayer(String userId, RoomDefinition definition) {
+        PlayerStates players = state.getPlayerStates();
+        long flags = players.getFlags(userId);
+        StringBuilder description = new StringBuilder();
+        for (Map.Entry<String, String> s : definition.getStates().entrySet()) {
+            int bit = PlayerStates.flag(s.getKey());
+            if (bit >= 0 && (flags & (1L << bit)) != 0) {
+                description.append(s.getValue()).append(' ');
+            }
+        }
+        if (description.length() == 0) {
+            description.append(LOOK_SELF).append(' ');
+        }
+        int visits = players.getCounter(userId, RoomState.VISITS);
+        if (visits > 1) {
+            description.append(LOOK_SELF_VISITS.format(Integer.toString(visits)));
+        }
+        return description.toString().trim();
+    }
+
+    /**
+     * @return commands, items and exits of the current room definition
+     */
+    public RoomIndex getIndex() {
+        return version.definition.getIndex();
+    }
+
     /**
      * Given a lower case string describing the direction someone wants
      * to go (/go N, or /go North), filter or transform that into a recognizable
-     * id that can be used as an index into a known list of exits. Always valid
-     * are n, s, e, w. If the string doesn't match a known exit direction,
+     * id that can be used as an index into a known list of exits (see
+     * {@link RoomDefinition}). If the string doesn't match a known exit direction,
      * return null.
      *
      * @param lowerDirection String read from the provided message
@@ -231,24 +566,8 @@ public class Room {
             return null;
         }
 
-        switch (lowerDirection) {
-            case "north":
-            case "south":
-            case "east":
-            case "west":
-                return lowerDirection.substring(0, 1);
-
-            case "n":
-            case "s":
-            case "e":
-            case "w":
-                // Assume N/S/E/W are managed by the map service.
-                return lowerDirection;
-
-            default:
-                // Otherwise unknown direction
-                return null;
-        }
+        // Exits (and their names) are listed in the room definition
+        return version.definition.getExitId(lowerDirection);
     }
 
     /**
@@ -258,18 +577,6 @@ public class Room {
      * @return A pretty version of the direction for use in the exit message.
      */
     protected String prettyDirection(String exitId) {
-        switch (exitId) {
-            case "n":
-                return "north";
-            case "s":
-                return "south";
-            case "e":
-                return "east";
-            case "w":
-                return "west";
-
-            default:
-                return exitId;
-        }
+        return version.definition.getExitName(exitId);
     }
 }
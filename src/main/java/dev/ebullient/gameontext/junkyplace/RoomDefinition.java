@@ -0,0 +1,726 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.Template;
+
+/**
+ * Room content: description, inventory, item responses and exits.
+ *
+ * <p>
+ * Definitions are read from a simple line-based data file (see
+ * {@code junkyplace.room} for the format). The file is read in one go, and
+ * item responses are decoded and compiled into {@link Template}s while it is
+ * parsed: nothing refers to the file's contents once loading is done.
+ * <p>
+ * Item responses are compiled into a dispatch table when the definition is
+ * loaded: verb, then item name or keyword, to the rules for that item,
+ * with their conditions already resolved to bit masks of player states.
+ * Finding a response doesn't get slower as the room fills up: it is a few
+ * hash lookups and a mask test (see {@link #findInteraction(String, String, long)}).
+ * <p>
+ * A definition is immutable: reloading a changed file creates a new one.
+ */
+public class RoomDefinition {
+    static final String USERNAME = "username";
+
+    /** Shown to a player going through an exit */
+    static final Template GO_FORTH = Template.compile("You head {direction}", "direction");
+
+    /** How often ambient events happen, if the definition doesn't say */
+    static final Duration DEFAULT_AMBIENT_INTERVAL = Duration.ofSeconds(60);
+
+    final RoomDescription roomDescription;
+    final String locationPayload;
+
+    /** Item name or keyword to item */
+    final Map<String, Item> items;
+
+    /** Verb, then item name or keyword, to the item's rules for that verb (conditional rules first) */
+    final Map<String, Map<String, Interaction[]>> dispatch;
+
+    /** Exits by id, name or alias */
+    final ExitTable exits;
+
+    /** Commands, items and exits, for /about and /help */
+    final RoomIndex index;
+
+    /** Things that happen in the room on their own */
+    final List<Ambient> ambient;
+
+    /** Things the room remembers about a player: name to what the player sees when they look at themselves */
+    final Map<String, String> states;
+
+    RoomDefinition(RoomDescription roomDescription, Map<String, Item> items, ExitTable exits, List<Ambient> ambient,
+            Map<String, String> states) {
+        this.roomDescription = roomDescription;
+        this.locationPayload = Message.toLocationPayload(roomDescription);
+        this.items = items;
+        this.dispatch = compile(items);
+        this.exits = exits;
+        this.index = new RoomIndex(roomDescription, items, exits);
+        this.ambient = Collections.unmodifiableList(ambient);
+        this.states = Collections.unmodifiableMap(states);
+    }
+
+    /**
+     * Load a room definition from a file.
+     *
+     * @param path Room definition file
+     * @return room definition
+     * @throws IOException if the file can not be read
+     * @throws IllegalArgumentException if the file is badly formed
+     */
+    public static RoomDefinition load(Path path) throws IOException {
+        return parse(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    /**
+     * Load a room definition bundled with the application.
+     *
+     * @param resource Name of the classpath resource
+     * @return room definition
+     */
+    public static RoomDefinition fromResource(String resource) {
+        try (InputStream in = RoomDefinition.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Room definition " + resource + " not found");
+            }
+            return parse(ByteBuffer.wrap(in.readAllBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read room definition " + resource, e);
+        }
+    }
+
+    public RoomDescription getRoomDescription() {
+        return roomDescription;
+    }
+
+    /**
+     * @return the room description, already converted to JSON
+     * @see Message#createLocationMessage(String, String)
+     */
+    public String getLocationPayload() {
+        return locationPayload;
+    }
+
+    public RoomIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return ambient events, in the order they are defined
+     * @see AmbientScheduler
+     */
+    public List<Ambient> getAmbient() {
+        return ambient;
+    }
+
+    /**
+     * @return player states, in the order they are defined: name to description
+     * @see PlayerStates
+     */
+    public Map<String, String> getStates() {
+        return states;
+    }
+
+    /**
+     * Find the response for an item, for a player who isn't in any state.
+     *
+     * @param verb The action: look, use
+     * @param lowerContent What the player wants to act on (lower case)
+     * @return the matching interaction, or null if no item responds to this verb
+     * @see #findInteraction(String, String, long)
+     */
+    public Interaction findInteraction(String verb, String lowerContent) {
+        return findInteraction(verb, lowerContent, 0);
+    }
+
+    /**
+     * Find the response for an item. Item names and keywords are matched against
+     * the whole (lower case) remainder of the command, then against pairs of words,
+     * then single words. The first of the item's rules whose conditions the
+     * player meets is used.
+     *
+     * @param verb The action: look, use
+     * @param lowerContent What the player wants to act on (lower case)
+     * @param flags The player's states (see {@link PlayerStates#getFlags(String)})
+     * @return the matching interaction, or null if no item responds to this verb
+     */
+    public Interaction findInteraction(String verb, String lowerContent, long flags) {
+        Map<String, Interaction[]> targets = dispatch.get(verb);
+        if (targets == null) {
+            return null;
+        }
+        Interaction result = select(targets.get(lowerContent), flags);
+        if (result != null) {
+            return result;
+        }
+
+        String[] words = words(lowerContent);
+        for (int i = 1; i < words.length; i++) {
+            result = select(targets.get(words[i - 1] + ' ' + words[i]), flags);
+            if (result != null) {
+                return result;
+            }
+        }
+        for (String word : words) {
+            result = select(targets.get(word), flags);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the words of the content, split on spaces (without a regular expression)
+     */
+    static String[] words(String content) {
+        List<String> words = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= content.length(); i++) {
+            boolean space = i == content.length() || Character.isWhitespace(content.charAt(i));
+            if (space && start >= 0) {
+                words.add(content.substring(start, i));
+                start = -1;
+            } else if (!space && start < 0) {
+                start = i;
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static Interaction select(Interaction[] rules, long flags) {
+        if (rules != null) {
+            for (Interaction rule : rules) {
+                if (rule.matches(flags)) {
+                    return rule;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build the dispatch table: verb, then every name and keyword of every item,
+     * to the item's rules for the verb.
+     */
+    static Map<String, Map<String, Interaction[]>> compile(Map<String, Item> items) {
+        Map<String, Map<String, Interaction[]>> table = new HashMap<>();
+        for (Map.Entry<String, Item> e : items.entrySet()) {
+            for (Map.Entry<String, Interaction[]> verb : e.getValue().interactions.entrySet()) {
+                table.computeIfAbsent(verb.getKey(), v -> new HashMap<>()).put(e.getKey(), verb.getValue());
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param lowerDirection Exit id, name or alias (lower case)
+     * @return exit, or null if there is no such exit
+     */
+    public ExitTable.Exit getExit(String lowerDirection) {
+        return exits.get(lowerDirection);
+    }
+
+    /**
+     * @param lowerDirection Exit id, name or alias (lower case)
+     * @return exit id, or null if there is no such exit
+     */
+    public String getExitId(String lowerDirection) {
+        ExitTable.Exit exit = exits.get(lowerDirection);
+        return exit == null ? null : exit.getId();
+    }
+
+    /**
+     * @param exitId Exit id
+     * @return pretty name of the exit, or the exit id if it has no name
+     */
+    public String getExitName(String exitId) {
+        ExitTable.Exit exit = exits.get(exitId);
+        return exit == null ? exitId : exit.getName();
+    }
+
+    @Override
+    public String toString() {
+        return roomDescription + ", exits=" + exits;
+    }
+
+    /** An item in the room, and how it responds to each verb */
+    public static class Item {
+        final String name;
+        final Set<String> keywords = new LinkedHashSet<>();
+
+        /** Rules as they are defined: verb, or verb/conditions, to rule */
+        final Map<String, Interaction> rules = new LinkedHashMap<>(4);
+
+        /** Verb to rules, conditional rules first (filled in once the item is defined) */
+        final Map<String, Interaction[]> interactions = new LinkedHashMap<>(4);
+        boolean hidden;
+
+        Item(String name) {
+            this.name = name;
+        }
+
+        void set(String key, ByteBuffer buffer, int start, int end, int line) {
+            int dot = key.indexOf('.');
+            if (dot < 0) {
+                switch (key) {
+                    case "keywords":
+                        for (String k : decode(buffer, start, end).split(",")) {
+                            keywords.add(k.trim().toLowerCase(Locale.ENGLISH));
+                        }
+                        break;
+                    case "hidden":
+                        hidden = Boolean.parseBoolean(decode(buffer, start, end));
+                        break;
+                    default:
+                        interaction(key).all = new Text(buffer, start, end);
+                        break;
+                }
+                return;
+            }
+
+            Interaction interaction = interaction(key.substring(0, dot));
+            switch (key.substring(dot + 1)) {
+                case "self":
+                    interaction.self = new Text(buffer, start, end);
+                    break;
+                case "exit":
+                    interaction.exitId = decode(buffer, start, end).toLowerCase(Locale.ENGLISH);
+                    break;
+                case "sets":
+                    interaction.sets = decode(buffer, start, end).toLowerCase(Locale.ENGLISH);
+                    break;
+                case "clears":
+                    interaction.clears = decode(buffer, start, end).toLowerCase(Locale.ENGLISH);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Line " + line + ": unknown item attribute " + key);
+            }
+        }
+
+        Interaction interaction(String rule) {
+            return rules.computeIfAbsent(rule.toLowerCase(Locale.ENGLISH), Interaction::new);
+        }
+
+        /**
+         * Resolve conditions and states to bit masks, and group rules by verb
+         *
+         * @param states States defined by the room
+         * @param exits Exits defined by the room (id to name)
+         */
+        void compile(Map<String, String> states, Map<String, String> exits) {
+            Map<String, List<Interaction>> byVerb = new LinkedHashMap<>();
+            for (Interaction rule : rules.values()) {
+                rule.compile(name, states, exits);
+                byVerb.computeIfAbsent(rule.verb, v -> new ArrayList<>()).add(rule);
+            }
+            for (Map.Entry<String, List<Interaction>> e : byVerb.entrySet()) {
+                List<Interaction> verbRules = e.getValue();
+                // stable: conditional rules keep their order, ahead of the unconditional one
+                verbRules.sort((a, b) -> Boolean.compare(!a.isConditional(), !b.isConditional()));
+                interactions.put(e.getKey(), verbRules.toArray(new Interaction[0]));
+            }
+        }
+    }
+
+    /**
+     * Response to a verb: text for everyone, text for the player,
+     * optionally an exit the player is sent through, and optionally
+     * a state the player is left in (or no longer in).
+     * <p>
+     * A rule can have conditions on the player's states: {@code verb/state}
+     * applies if the player is in the state, {@code verb/!state} if they
+     * aren't, and {@code verb/a+!b} if both are true.
+     */
+    public static class Interaction {
+        final String rule;
+        final String verb;
+        Text all;
+        Text self;
+        String exitId;
+        String sets;
+        String clears;
+
+        long requires;
+        long excludes;
+        int setsFlag = -1;
+        int clearsFlag = -1;
+
+        Interaction(String rule) {
+            this.rule = rule;
+            int slash = rule.indexOf('/');
+            this.verb = slash < 0 ? rule : rule.substring(0, slash);
+        }
+
+        void compile(String item, Map<String, String> states, Map<String, String> exits) {
+            if (all == null && self == null && exitId == null) {
+                throw new IllegalArgumentException("Item " + item + " has no response to " + rule);
+            }
+            if (exitId != null && !exits.containsKey(exitId)) {
+                throw new IllegalArgumentException("Item " + item + " uses unknown exit " + exitId + " for " + rule);
+            }
+            int slash = rule.indexOf('/');
+            if (slash >= 0) {
+                for (String condition : rule.substring(slash + 1).split("\\+")) {
+                    boolean not = condition.startsWith("!");
+                    String state = (not ? condition.substring(1) : condition).trim();
+                    if (not) {
+                        excludes |= 1L << flag(item, state, states);
+                    } else {
+                        requires |= 1L << flag(item, state, states);
+                    }
+                }
+            }
+            if (sets != null) {
+                setsFlag = flag(item, sets, states);
+            }
+            if (clears != null) {
+                clearsFlag = flag(item, clears, states);
+            }
+        }
+
+        private static int flag(String item, String state, Map<String, String> states) {
+            if (!states.containsKey(state)) {
+                throw new IllegalArgumentException("Item " + item + " uses unknown state " + state);
+            }
+            int bit = PlayerStates.flag(state);
+            if (bit < 0) {
+                throw new IllegalArgumentException("Too many states: can't add " + state);
+            }
+            return bit;
+        }
+
+        /**
+         * @param flags The player's states
+         * @return true if the player meets the rule's conditions
+         */
+        public boolean matches(long flags) {
+            return (flags & requires) == requires && (flags & excludes) == 0;
+        }
+
+        public boolean isConditional() {
+            return requires != 0 || excludes != 0;
+        }
+
+        public Text getAll() {
+            return all;
+        }
+
+        public Text getSelf() {
+            return self;
+        }
+
+        public String getExitId() {
+            return exitId;
+        }
+
+        /**
+         * @return name of the state the player is in afterwards, or null
+         */
+        public String getSets() {
+            return sets;
+        }
+
+        /**
+         * @return the state the player is in afterwards (see {@link PlayerStates#flag(String)}), or -1
+         */
+        public int getSetsFlag() {
+            return setsFlag;
+        }
+
+        /**
+         * @return the state the player is no longer in afterwards (see {@link PlayerStates#flag(String)}), or -1
+         */
+        public int getClearsFlag() {
+            return clearsFlag;
+        }
+
+        @Override
+        public String toString() {
+            return rule;
+        }
+    }
+
+    /** Something that happens in the room on its own, every so often */
+    public static class Ambient {
+        final String name;
+        String text;
+        Duration every = DEFAULT_AMBIENT_INTERVAL;
+
+        Ambient(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return what everyone in the room is told
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return how often it happens (on average)
+         */
+        public Duration getEvery() {
+            return every;
+        }
+
+        @Override
+        public String toString() {
+            return name + "@" + every;
+        }
+    }
+
+    /**
+     * Response text, compiled when the definition is loaded.
+     */
+    public static class Text {
+        final Template template;
+
+        Text(ByteBuffer buffer, int start, int end) {
+            this.template = Template.compile(decode(buffer, start, end), USERNAME);
+        }
+
+        /**
+         * @return compiled text, with a slot for {@code {username}}
+         */
+        public Template getTemplate() {
+            return template;
+        }
+
+        /**
+         * @param username Name of the player
+         * @return decoded text, with the player's name filled in
+         */
+        public String render(String username) {
+            return getTemplate().format(username);
+        }
+
+        @Override
+        public String toString() {
+            return template.toString();
+        }
+    }
+
+    static RoomDefinition parse(ByteBuffer buffer) {
+        RoomDescription description = new RoomDescription();
+        Map<String, String> commands = new LinkedHashMap<>();
+        Set<String> inventory = new LinkedHashSet<>();
+        Map<String, String> exits = new LinkedHashMap<>();
+        Map<String, String> aliases = new LinkedHashMap<>();
+        Map<String, Item> items = new LinkedHashMap<>();
+        Map<String, Ambient> ambient = new LinkedHashMap<>();
+        Map<String, String> states = new LinkedHashMap<>();
+
+        String section = "";
+        Item item = null;
+        int line = 0;
+        int pos = buffer.position();
+        final int limit = buffer.limit();
+
+        while (pos < limit) {
+            int eol = pos;
+            while (eol < limit && buffer.get(eol) != '\n') {
+                eol++;
+            }
+            line++;
+
+            int start = skipSpace(buffer, pos, eol);
+            int end = trimEnd(buffer, start, eol);
+            pos = eol + 1;
+
+            if (start == end || buffer.get(start) == '#') {
+                continue;
+            }
+
+            if (buffer.get(start) == '[') {
+                if (buffer.get(end - 1) != ']') {
+                    throw new IllegalArgumentException("Line " + line + ": badly formed section header");
+                }
+                section = decode(buffer, start + 1, end - 1).trim();
+                item = null;
+                if (section.startsWith("item ")) {
+                    item = new Item(section.substring(5).trim());
+                    items.put(item.name.toLowerCase(Locale.ENGLISH), item);
+                }
+                continue;
+            }
+
+            int eq = start;
+            while (eq < end && buffer.get(eq) != '=') {
+                eq++;
+            }
+            if (eq == end) {
+                throw new IllegalArgumentException("Line " + line + ": expected key=value");
+            }
+            String key = decode(buffer, start, trimEnd(buffer, start, eq));
+            int valueStart = skipSpace(buffer, eq + 1, end);
+
+            if (item != null) {
+                item.set(key, buffer, valueStart, end, line);
+                continue;
+            }
+
+            String value = decode(buffer, valueStart, end);
+            switch (section) {
+                case "room":
+                    switch (key) {
+                        case "name":
+                            description.setName(value);
+                            break;
+                        case "fullName":
+                            description.setFullName(value);
+                            break;
+                        case "description":
+                            description.setDescription(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Line " + line + ": unknown room attribute " + key);
+                    }
+                    break;
+                case "commands":
+                    commands.put(key, value);
+                    break;
+                case "exits":
+                    // id = name, alias, alias...
+                    String id = key.toLowerCase(Locale.ENGLISH);
+                    String[] names = value.toLowerCase(Locale.ENGLISH).split(",");
+                    exits.put(id, names[0].trim());
+                    for (int i = 1; i < names.length; i++) {
+                        aliases.put(names[i].trim(), id);
+                    }
+                    break;
+                case "ambient":
+                    // name = text, name.every = interval
+                    int dot = key.indexOf('.');
+                    if (dot < 0) {
+                        ambient.computeIfAbsent(key, Ambient::new).text = value;
+                    } else if (key.substring(dot + 1).equals("every")) {
+                        ambient.computeIfAbsent(key.substring(0, dot), Ambient::new).every = parseInterval(value, line);
+                    } else {
+                        throw new IllegalArgumentException("Line " + line + ": unknown ambient attribute " + key);
+                    }
+                    break;
+                case "states":
+                    states.put(key.toLowerCase(Locale.ENGLISH), value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Line " + line + ": unknown section " + section);
+            }
+        }
+
+        // Index the items by keyword, and fill in the visible inventory
+        Map<String, Item> index = new HashMap<>(items);
+        for (Item i : items.values()) {
+            for (String k : i.keywords) {
+                index.put(k, i);
+            }
+            if (!i.hidden) {
+                inventory.add(i.name);
+            }
+        }
+        for (Item i : items.values()) {
+            i.compile(states, exits);
+        }
+
+        List<Ambient> events = new ArrayList<>();
+        for (Ambient a : ambient.values()) {
+            if (a.text == null) {
+                throw new IllegalArgumentException("Ambient event " + a.name + " has no text");
+            }
+            events.add(a);
+        }
+
+        description.setCommands(commands);
+        description.setRoomInventory(inventory);
+        return new RoomDefinition(description, index, new ExitTable(exits, aliases, GO_FORTH), events, states);
+    }
+
+    /**
+     * @param value Interval: a number followed by ms, s, m or h (e.g. 90s)
+     * @param line Line number, for errors
+     */
+    static Duration parseInterval(String value, int line) {
+        String v = value.trim().toLowerCase(Locale.ENGLISH);
+        int unit = 0;
+        while (unit < v.length() && Character.isDigit(v.charAt(unit))) {
+            unit++;
+        }
+        if (unit == 0) {
+            throw new IllegalArgumentException("Line " + line + ": badly formed interval " + value);
+        }
+        long n = Long.parseLong(v.substring(0, unit));
+        Duration d;
+        switch (v.substring(unit).trim()) {
+            case "ms":
+                d = Duration.ofMillis(n);
+                break;
+            case "":
+            case "s":
+                d = Duration.ofSeconds(n);
+                break;
+            case "m":
+                d = Duration.ofMinutes(n);
+                break;
+            case "h":
+                d = Duration.ofHours(n);
+                break;
+            default:
+                throw new IllegalArgumentException("Line " + line + ": badly formed interval " + value);
+        }
+        if (d.isZero()) {
+            throw new IllegalArgumentException("Line " + line + ": interval must be greater than zero");
+        }
+        return d;
+    }
+
+    static int skipSpace(ByteBuffer buffer, int start, int end) {
+        while (start < end && isSpace(buffer.get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    static int trimEnd(ByteBuffer buffer, int start, int end) {
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
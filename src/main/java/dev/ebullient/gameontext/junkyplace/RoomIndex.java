@@ -0,0 +1,155 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Template;
+
+/**
+ * What a player can do in the room: commands, what items respond to,
+ * and exits.
+ *
+ * <p>
+ * The index is built with the room definition. Answers to {@code /about}
+ * and {@code /help <command>} are rendered once, as {@link Template}s with no
+ * slots: the text is already escaped for JSON, and replying only copies it
+ * into the event. The JSON form (served by {@link RoomIndexResource}) is
+ * also encoded once.
+ */
+public class RoomIndex {
+
+    /** Commands handled by {@link Room} itself */
+    static final Map<String, String> BUILT_IN;
+    static {
+        Map<String, String> builtIn = new LinkedHashMap<>();
+        builtIn.put("/go", "Go through an exit, e.g. /go north");
+        builtIn.put("/look", "Look around the room, or at something in it, e.g. /look teddy");
+        builtIn.put("/examine", "Take a closer look at the room, or at something in it");
+        builtIn.put("/about", "Describe the room: what you can do here, and where you can go");
+        builtIn.put("/help", "Explain a command, e.g. /help /go");
+        builtIn.put("/whisper", "Say something only one player can hear, e.g. /whisper bob nice socks");
+        builtIn.put("/emote", "Show everyone what you're doing, e.g. /emote waves");
+        BUILT_IN = Collections.unmodifiableMap(builtIn);
+    }
+
+    public static final Template NO_HELP = Template.compile(
+            "There is no help for `{command}`. Try /help to see what you can do.", "command");
+
+    final Map<String, String> commands;
+    final Map<String, List<String>> items;
+    final Map<String, String> exits;
+
+    final Template about;
+    final Template commandList;
+    final Map<String, Template> help = new HashMap<>();
+    final String json;
+
+    RoomIndex(RoomDescription description, Map<String, RoomDefinition.Item> itemIndex, ExitTable exitTable) {
+        // Room-specific commands can describe (or replace the description of) built-in ones
+        this.commands = new LinkedHashMap<>(BUILT_IN);
+        if (description.getCommands() != null) {
+            commands.putAll(description.getCommands());
+        }
+
+        // Visible items, and the verbs they respond to
+        this.items = new LinkedHashMap<>();
+        Map<String, List<String>> byVerb = new HashMap<>();
+        if (description.getRoomInventory() != null) {
+            for (String name : description.getRoomInventory()) {
+                RoomDefinition.Item item = itemIndex.get(name.toLowerCase(Locale.ENGLISH));
+                List<String> verbs = item == null ? List.of() : new ArrayList<>(new TreeSet<>(item.interactions.keySet()));
+                items.put(name, verbs);
+                verbs.forEach(v -> byVerb.computeIfAbsent(v, k -> new ArrayList<>()).add(name));
+            }
+        }
+        // examine works the same way as look
+        if (byVerb.containsKey("look")) {
+            byVerb.put("examine", byVerb.get("look"));
+        }
+
+        this.exits = new LinkedHashMap<>();
+        exitTable.getExits().forEach(e -> exits.put(e.getId(), e.getName()));
+
+        String exitNames = String.join(", ", exits.values());
+        String commandNames = String.join(", ", commands.keySet());
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(description.getFullName() == null ? description.getName() : description.getFullName());
+        if (description.getDescription() != null) {
+            sb.append(": ").append(description.getDescription());
+        }
+        sb.append("\nYou can use: ").append(commandNames).append(" (try /help <command>)");
+        if (!items.isEmpty()) {
+            sb.append("\nThings here: ").append(String.join(", ", items.keySet()));
+        }
+        if (!exits.isEmpty()) {
+            sb.append("\nExits: ").append(exitNames);
+        }
+        this.about = Template.compile(sb.toString());
+        this.commandList = Template.compile("You can use: " + commandNames + ". Try /help <command> to learn more.");
+
+        commands.forEach((command, text) -> {
+            StringBuilder h = new StringBuilder(command).append(": ").append(text);
+            List<String> things = byVerb.get(command.substring(1));
+            if (things != null) {
+                h.append("\nThings to ").append(command.substring(1)).append(": ").append(String.join(", ", things));
+            }
+            if (command.equals("/go") && !exits.isEmpty()) {
+                h.append("\nExits: ").append(exitNames);
+            }
+            help.put(command.toLowerCase(Locale.ENGLISH), Template.compile(h.toString()));
+        });
+
+        Map<String, Object> index = new LinkedHashMap<>();
+        index.put("name", description.getName());
+        index.put("fullName", description.getFullName());
+        index.put("commands", commands);
+        index.put("items", items);
+        index.put("exits", exits);
+        this.json = toJson(index);
+    }
+
+    /**
+     * @return description of the room, and what can be done in it
+     */
+    public Template getAbout() {
+        return about;
+    }
+
+    /**
+     * @param lowerCommand Command to explain (with or without the leading '/'), or null for all commands
+     * @return help for the command, or null if there is no such command
+     */
+    public Template getHelp(String lowerCommand) {
+        if (lowerCommand == null || lowerCommand.isEmpty()) {
+            return commandList;
+        }
+        return help.get(lowerCommand.charAt(0) == '/' ? lowerCommand : '/' + lowerCommand);
+    }
+
+    /**
+     * @return the index as JSON: name, commands, items (with their verbs), and exits
+     */
+    public String toJson() {
+        return json;
+    }
+
+    private static String toJson(Map<String, Object> index) {
+        try {
+            return new ObjectMapper().writeValueAsString(index);
+        } catch (JsonProcessingException e) {
+            Log.log(Level.WARNING, index, "Unable to convert room index to JSON", e);
+            return "{}";
+        }
+    }
+}
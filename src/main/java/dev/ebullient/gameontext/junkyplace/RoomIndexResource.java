@@ -0,0 +1,24 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The room's commands, items and exits (see {@link RoomIndex}), as JSON.
+ * This is the same index that answers {@code /about} and {@code /help}.
+ */
+@Path("/junkyplace/index")
+public class RoomIndexResource {
+
+    @Inject
+    Room room;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public String index() {
+        return room.getIndex().toJson();
+    }
+}
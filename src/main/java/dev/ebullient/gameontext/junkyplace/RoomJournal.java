@@ -0,0 +1,336 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of room state changes (players arriving and leaving,
+ * and the bookmark high-water mark).
+ *
+ * <p>
+ * Changes are queued by the caller and written behind by a single writer
+ * thread: queuing never blocks. The writer drains everything that is queued
+ * into one write and one {@code fsync} (group commit), and appends the current
+ * bookmark to every batch.
+ * <p>
+ * Once enough records have been written, the writer compacts the journal:
+ * the state built from the records it has written so far (not the caller's
+ * live state, which may be ahead of the journal) is written to a snapshot
+ * (using the same record format), which is moved into place before the journal
+ * is truncated. Every record in the journal is then already reflected in the
+ * snapshot, and replaying records is idempotent, so a crash between the two
+ * steps is harmless.
+ * <p>
+ * Each record is {@code [length][crc32][type][fields]}. Replay stops at the
+ * first incomplete or corrupt record (a torn write), and the journal is
+ * truncated there before new records are appended.
+ */
+public class RoomJournal implements Closeable {
+    static final String JOURNAL = "room.journal";
+    static final String SNAPSHOT = "room.snapshot";
+
+    static final byte ARRIVED = 1;
+    static final byte LEFT = 2;
+    static final byte BOOKMARK = 3;
+
+    static final byte[] EMPTY = new byte[0];
+    static final int QUEUE_CAPACITY = 65536;
+    static final int MAX_BATCH = 4096;
+
+    final Path directory;
+    final int snapshotRecords;
+    final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** Players present according to the records written so far (only used by the writer once started) */
+    private final Map<String, String> applied = new HashMap<>();
+    private LongSupplier bookmark;
+    private FileChannel channel;
+    private Thread writer;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private long validLength;
+    private int written;
+    private volatile boolean running;
+
+    /**
+     * @param directory Directory for the journal and snapshot files
+     * @param snapshotRecords Compact the journal after this many records
+     */
+    public RoomJournal(Path directory, int snapshotRecords) {
+        this.directory = directory;
+        this.snapshotRecords = snapshotRecords;
+    }
+
+    /**
+     * Rebuild state from the snapshot and the journal.
+     *
+     * @param players Map to fill with present players (userId to username)
+     * @return the highest bookmark recorded, or -1 if nothing was recorded
+     * @throws IOException if the files can't be read
+     */
+    public long replay(Map<String, String> players) throws IOException {
+        Files.createDirectories(directory);
+        long[] bookmark = { -1 };
+        applied.clear();
+        replay(directory.resolve(SNAPSHOT), applied, bookmark);
+        validLength = replay(directory.resolve(JOURNAL), applied, bookmark);
+        players.putAll(applied);
+        return bookmark[0];
+    }
+
+    /**
+     * Open the journal for writing (after {@link #replay(Map)}), and start the writer thread.
+     *
+     * @param bookmark Source of the current bookmark
+     * @throws IOException if the journal can't be opened
+     */
+    public void start(LongSupplier bookmark) throws IOException {
+        Files.createDirectories(directory);
+        this.bookmark = bookmark;
+        this.channel = FileChannel.open(directory.resolve(JOURNAL),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // discard a torn write (if any) left behind by a crash
+        channel.truncate(validLength);
+        channel.position(validLength);
+
+        running = true;
+        writer = new Thread(this::writeBehind, "junkyplace-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return false if the record could not be queued
+     */
+    public boolean arrived(String userId, String username) {
+        return enqueue(new Entry(ARRIVED, userId, username));
+    }
+
+    /**
+     * @return false if the record could not be queued
+     */
+    public boolean left(String userId) {
+        return enqueue(new Entry(LEFT, userId, null));
+    }
+
+    private boolean enqueue(Entry entry) {
+        if (queue.offer(entry)) {
+            return true;
+        }
+        Log.log(Level.WARNING, this, "Journal queue is full, dropped record for {0}", entry.userId);
+        return false;
+    }
+
+    /**
+     * Stop the writer once everything queued has been written,
+     * and close the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void writeBehind() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                write(batch);
+                if (written >= snapshotRecords) {
+                    snapshot();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.log(Level.WARNING, this, "Unable to write room journal", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /** Group commit: one write and one fsync for the whole batch */
+    private void write(List<Entry> batch) throws IOException {
+        buffer.clear();
+        for (Entry e : batch) {
+            append(e.type, e.userId, e.username, 0);
+            if (e.type == ARRIVED) {
+                applied.put(e.userId, e.username == null ? "" : e.username);
+            } else {
+                applied.remove(e.userId);
+            }
+        }
+        append(BOOKMARK, null, null, bookmark.getAsLong());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        written += batch.size() + 1;
+    }
+
+    /** Compact: write the state the journal has recorded to a new snapshot, then truncate the journal */
+    private void snapshot() throws IOException {
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.clear();
+            for (Map.Entry<String, String> p : applied.entrySet()) {
+                append(ARRIVED, p.getKey(), p.getValue(), 0);
+            }
+            append(BOOKMARK, null, null, bookmark.getAsLong());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        Log.log(Level.FINE, this, "Room journal compacted after {0} records", written);
+        written = 0;
+    }
+
+    private void append(byte type, String userId, String username, long value) {
+        byte[] id = userId == null ? EMPTY : userId.getBytes(StandardCharsets.UTF_8);
+        byte[] name = username == null ? EMPTY : username.getBytes(StandardCharsets.UTF_8);
+
+        int length = 1 + (type == BOOKMARK ? 8 : 4 + id.length + (type == ARRIVED ? 4 + name.length : 0));
+        ensureCapacity(8 + length);
+
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0); // crc placeholder
+        buffer.put(type);
+        if (type == BOOKMARK) {
+            buffer.putLong(value);
+        } else {
+            buffer.putInt(id.length).put(id);
+            if (type == ARRIVED) {
+                buffer.putInt(name.length).put(name);
+            }
+        }
+        buffer.putInt(start + 4, crc(buffer, start + 8, length));
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Apply records from a file.
+     *
+     * @return length of the valid prefix of the file
+     */
+    static long replay(Path file, Map<String, String> players, long[] bookmark) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(MapMode.READ_ONLY, 0, in.size());
+            int valid = 0;
+            try {
+                records: while (data.remaining() >= 8) {
+                    int length = data.getInt();
+                    int crc = data.getInt();
+                    if (length <= 0 || length > data.remaining() || crc(data, data.position(), length) != crc) {
+                        break;
+                    }
+                    byte type = data.get();
+                    switch (type) {
+                        case ARRIVED:
+                            String id = readString(data);
+                            players.put(id, readString(data));
+                            break;
+                        case LEFT:
+                            players.remove(readString(data));
+                            break;
+                        case BOOKMARK:
+                            bookmark[0] = Math.max(bookmark[0], data.getLong());
+                            break;
+                        default:
+                            break records;
+                    }
+                    valid = data.position();
+                }
+            } catch (BufferUnderflowException e) {
+                // a damaged record: stop here
+            }
+            if (valid < in.size()) {
+                Log.log(Level.WARNING, file, "Ignoring {0} bytes of damaged records in {1}", in.size() - valid, file);
+            }
+            return valid;
+        }
+    }
+
+    static String readString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int crc(ByteBuffer data, int offset, int length) {
+        ByteBuffer b = data.duplicate();
+        b.limit(offset + length);
+        b.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(b);
+        return (int) crc.getValue();
+    }
+
+    static class Entry {
+        final byte type;
+        final String userId;
+        final String username;
+
+        Entry(byte type, String userId, String username) {
+            this.type = type;
+            this.userId = userId;
+            this.username = username;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.websocket.DecodeException;
+
+import dev.ebullient.gameontext.junkyplace.protocol.InMemorySink;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+/**
+ * Drive a room in-process, without WebSockets, with a synthetic workload:
+ * players joining and leaving, chatting, and using every command the room
+ * knows (and some it doesn't).
+ *
+ * <p>
+ * The workload is generated up front from a seed, so a run is repeatable and
+ * generating it isn't measured. Messages are either decoded from their frames
+ * every time (as they would be when received), or handed to the room already
+ * decoded, to measure the room on its own. Output goes to an
+ * {@link InMemorySink}.
+ * <p>
+ * {@link #check(long)} also verifies properties of the room's replies to
+ * every message (see {@link #verify}).
+ * <p>
+ * From the command line: {@code RoomSimulation [messages] [players] [seed]}.
+ */
+public class RoomSimulation {
+    static final String ROOM_ID = "junkyplace";
+    static final int WORKLOAD_SIZE = 1 << 14;
+    static final int MAX_REPORTED = 10;
+    static final Pattern EXIT_ID = Pattern.compile("\"exitId\":\"([^\"]*)\"");
+
+    /** Things players say: commands (known and unknown) and chat */
+    static final String[] CONTENT = {
+            "/look", "/look room", "/look teddy", "/examine mud", "/look at the moon diagram", "/look socks",
+            "/use mud", "/look me", "/use teddy", "/use the moon diagram", "/use bookshelf", "/use book", "/use",
+            "/go n", "/go north", "/go w", "/go up", "/go",
+            "/about", "/help", "/help use", "/help /go", "/help dance",
+            "/dance", "/Look Teddy",
+            "hello", "is anyone here?", "this room is \"interesting\"",
+    };
+
+    final Room room;
+    final Message[] messages;
+    final String[] frames;
+    final InMemorySink sink = new InMemorySink(64);
+
+    /**
+     * @param room Room to drive (see {@link Room#standalone()})
+     * @param players Number of players in the workload
+     * @param seed Seed for generating the workload
+     */
+    public RoomSimulation(Room room, int players, long seed) {
+        this.room = room;
+        this.messages = new Message[WORKLOAD_SIZE];
+        this.frames = new String[WORKLOAD_SIZE];
+
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < WORKLOAD_SIZE; i++) {
+            int p = random.nextInt(Math.max(1, players));
+            String userId = "user" + p;
+            String username = "player " + p;
+            int pick = random.nextInt(100);
+            Message m;
+            if (pick < 2) {
+                m = Message.createRoomHello(ROOM_ID, userId, username, 2);
+            } else if (pick < 3) {
+                m = Message.createRoomJoin(ROOM_ID, userId, username, 2);
+            } else if (pick < 5) {
+                m = Message.createRoomGoodbye(ROOM_ID, userId, username);
+            } else {
+                m = Message.createRoomMessage(ROOM_ID, userId, username, CONTENT[random.nextInt(CONTENT.length)]);
+            }
+            frames[i] = m.encode();
+            messages[i] = m;
+        }
+    }
+
+    /**
+     * Send messages through the room as fast as possible.
+     *
+     * @param count Number of messages to send
+     * @param decode True to decode each message from its frame, false to send messages already decoded
+     * @return number of messages, replies, and how long it took
+     * @throws DecodeException if a frame can't be decoded
+     */
+    public Result run(long count, boolean decode) throws DecodeException {
+        sink.clear();
+        long start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            int w = (int) (i & (WORKLOAD_SIZE - 1));
+            room.handleMessage(decode ? new Message(frames[w]) : messages[w], sink);
+        }
+        return new Result(count, sink.getCount(), System.nanoTime() - start);
+    }
+
+    /**
+     * Send messages through the room, and verify the replies to each.
+     *
+     * @param count Number of messages to send
+     * @return descriptions of the first few violations (empty if there weren't any)
+     * @throws DecodeException if a frame can't be decoded
+     */
+    public List<String> check(long count) throws DecodeException {
+        List<String> violations = new ArrayList<>();
+        for (long i = 0; i < count && violations.size() < MAX_REPORTED; i++) {
+            int w = (int) (i & (WORKLOAD_SIZE - 1));
+            Message in = new Message(frames[w]);
+            sink.clear();
+            room.handleMessage(in, sink);
+            verify(in, sink.getMessages(), violations);
+        }
+        return violations;
+    }
+
+    /**
+     * Properties of the room's replies to a message:
+     * <ul>
+     * <li>players get a reply to everything they say</li>
+     * <li>a player saying hello is sent the room's location first</li>
+     * <li>replies are only sent to everyone, or to the player who sent the message</li>
+     * <li>players only leave by /go or /use, through one of the room's exits</li>
+     * <li>replies are well formed: decoding a reply gives the same message</li>
+     * </ul>
+     */
+    void verify(Message in, List<Message> out, List<String> violations) {
+        String userId;
+        String content = null;
+        switch (in.getTarget()) {
+            case room:
+                Message.ClientMessage c = in.getParsedBody();
+                userId = c.userId;
+                content = c.content;
+                if (out.isEmpty()) {
+                    violations.add("No reply to " + in.encode());
+                }
+                break;
+            case roomHello:
+            case roomJoin:
+                Message.MediatorRoomHello hello = in.getParsedBody();
+                userId = hello.userId;
+                if (out.isEmpty() || !out.get(0).encode().contains("\"type\":\"location\"")
+                        || !userId.equals(out.get(0).getTargetId())) {
+                    violations.add("No location sent in reply to " + in.encode());
+                }
+                break;
+            case roomGoodbye:
+            case roomPart:
+                Message.MediatorRoomGoodbye goodbye = in.getParsedBody();
+                userId = goodbye.userId;
+                break;
+            default:
+                return;
+        }
+
+        for (Message o : out) {
+            String frame = o.encode();
+            if (!o.getTargetId().equals("*") && !o.getTargetId().equals(userId)) {
+                violations.add("Reply to " + in.encode() + " sent to someone else: " + frame);
+            }
+            if (o.getTarget() == Message.Target.playerLocation) {
+                Matcher m = EXIT_ID.matcher(frame);
+                String exitId = m.find() ? m.group(1) : null;
+                if (content == null || !(content.startsWith("/go ") || content.startsWith("/use "))
+                        || exitId == null || !room.getIndex().exits.containsKey(exitId)) {
+                    violations.add("Unexpected exit in reply to " + in.encode() + ": " + frame);
+                }
+            }
+            try {
+                if (!o.equals(new Message(frame))) {
+                    violations.add("Reply doesn't decode to itself: " + frame);
+                }
+            } catch (DecodeException e) {
+                violations.add("Reply can't be decoded: " + frame);
+            }
+        }
+    }
+
+    /** Outcome of a run */
+    public static class Result {
+        final long messages;
+        final long replies;
+        final long elapsedNanos;
+
+        Result(long messages, long replies, long elapsedNanos) {
+            this.messages = messages;
+            this.replies = replies;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getReplies() {
+            return replies;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return messages handled per second
+         */
+        public double getThroughput() {
+            return messages * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d messages (%d replies) in %dms: %.0f messages/s", messages, replies,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput());
+        }
+    }
+
+    public static void main(String[] args) throws DecodeException {
+        long count = args.length > 0 ? Long.parseLong(args[0]) : 5_000_000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        RoomSimulation simulation = new RoomSimulation(Room.standalone(), players, seed);
+        List<String> violations = simulation.check(WORKLOAD_SIZE);
+        violations.forEach(System.out::println);
+
+        // warm up, then measure
+        simulation.run(count / 10, true);
+        System.out.println("decoded:  " + simulation.run(count, false));
+        System.out.println("frames:   " + simulation.run(count, true));
+        System.exit(violations.isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,174 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Dynamic room state: who is in the room, where the bookmark
+ * counter is, and what the room remembers about each player.
+ *
+ * <p>
+ * If a journal directory is configured, changes are written behind to a
+ * {@link RoomJournal}, and replayed on startup. Otherwise state only lives
+ * as long as the process. Players who were in the room when it stopped have
+ * no sessions after a restart: they are restored as departed (remembered, but
+ * not in the room) until the mediator sends them back with a roomJoin or roomHello.
+ * <p>
+ * What the room remembers about players ({@link PlayerStates}) is transient:
+ * it isn't journaled, and is forgotten a while after the player leaves.
+ */
+@ApplicationScoped
+public class RoomState {
+    /** Player counters (see {@link PlayerStates#increment(String, int)}) */
+    public static final int VISITS = 0;
+    static final int COUNTERS = 1;
+
+    /** What the room remembers about players, when not managed by CDI */
+    static final int DEFAULT_PLAYER_STATES = 65536;
+    static final Duration DEFAULT_PLAYER_STATE_TTL = Duration.ofMinutes(15);
+
+    @ConfigProperty(name = "junkyplace.journal.directory")
+    Optional<String> journalDirectory;
+
+    /** Compact the journal into a snapshot after this many records */
+    @ConfigProperty(name = "junkyplace.journal.snapshot-records", defaultValue = "10000")
+    int snapshotRecords;
+
+    /**
+     * Bookmarks are only recorded once per batch: skip ahead by this much on
+     * restart so bookmarks sent after the last batch are never reused.
+     */
+    @ConfigProperty(name = "junkyplace.journal.bookmark-gap", defaultValue = "10000")
+    long bookmarkGap;
+
+    @ConfigProperty(name = "junkyplace.player-state.max-players", defaultValue = "65536")
+    int maxPlayerStates;
+
+    @ConfigProperty(name = "junkyplace.player-state.ttl", defaultValue = "15m")
+    Duration playerStateTtl;
+
+    /** userId to username */
+    final Map<String, String> players = new ConcurrentHashMap<>();
+
+    /** Username (lower case) to userId, for players in the room */
+    final Map<String, String> usernames = new ConcurrentHashMap<>();
+
+    /** Flags and counters for each player (replaced with a configured store when managed by CDI) */
+    PlayerStates playerStates = new PlayerStates(DEFAULT_PLAYER_STATES, DEFAULT_PLAYER_STATE_TTL, COUNTERS,
+            System::nanoTime);
+
+    private RoomJournal journal;
+
+    @PostConstruct
+    void postConstruct() {
+        playerStates = new PlayerStates(maxPlayerStates, playerStateTtl, COUNTERS, System::nanoTime);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (journalDirectory.isEmpty()) {
+            return;
+        }
+
+        RoomJournal j = new RoomJournal(Paths.get(journalDirectory.get()), snapshotRecords);
+        try {
+            long start = System.nanoTime();
+            Map<String, String> replayed = new HashMap<>();
+            long bookmark = j.replay(replayed);
+            if (bookmark >= 0) {
+                Message.restoreBookmark(bookmark + bookmarkGap);
+            }
+            j.start(Message::currentBookmark);
+            journal = j;
+            for (String userId : replayed.keySet()) {
+                playerStates.arrived(userId);
+                playerLeft(userId);
+            }
+            Log.log(Level.INFO, this, "Room state replayed in {0}ms: {1} players restored as departed, bookmark {2}",
+                    (System.nanoTime() - start) / 1_000_000, replayed.size(), Message.currentBookmark());
+        } catch (IOException e) {
+            Log.log(Level.WARNING, this, "Unable to open room journal, room state will not be saved", e);
+        }
+    }
+
+    @PreDestroy
+    void preDestroy() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.log(Level.WARNING, this, "Unable to close room journal", e);
+            }
+        }
+    }
+
+    public void playerArrived(String userId, String username) {
+        String name = username == null ? "" : username;
+        String previous = players.put(userId, name);
+        if (previous != null && !previous.equals(name)) {
+            usernames.remove(previous.toLowerCase(Locale.ENGLISH), userId);
+        }
+        indexUsername(userId, name);
+        playerStates.arrived(userId);
+        if (journal != null) {
+            journal.arrived(userId, username);
+        }
+    }
+
+    public void playerLeft(String userId) {
+        String name = players.remove(userId);
+        if (name != null) {
+            usernames.remove(name.toLowerCase(Locale.ENGLISH), userId);
+        }
+        playerStates.left(userId);
+        if (journal != null) {
+            journal.left(userId);
+        }
+    }
+
+    /**
+     * @return players in the room: userId to username
+     */
+    public Map<String, String> getPlayers() {
+        return Collections.unmodifiableMap(players);
+    }
+
+    /**
+     * @param username Name of a player (any case)
+     * @return userId of the player in the room with that name, or null if there isn't one
+     */
+    public String findPlayer(String username) {
+        return usernames.get(username.toLowerCase(Locale.ENGLISH));
+    }
+
+    private void indexUsername(String userId, String username) {
+        if (!username.isEmpty()) {
+            // If two players have the same name, the most recent one can be found
+            usernames.put(username.toLowerCase(Locale.ENGLISH), userId);
+        }
+    }
+
+    /**
+     * @return what the room remembers about each player
+     */
+    public PlayerStates getPlayerStates() {
+        return playerStates;
+    }
+}
@@ -0,0 +1,124 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+/**
+ * A version of the room as players see it.
+ *
+ * <p>
+ * Players joining the room are sent the whole description (a snapshot), which
+ * is encoded once per version. When the room changes, players already in the
+ * room are only sent what changed ({@link Message.LocationDelta}): items added
+ * or removed, and new text for anything else that changed. The version number
+ * only moves when something players can see has changed.
+ */
+public class RoomVersion {
+
+    final long version;
+    final RoomDefinition definition;
+    final String snapshot;
+
+    /** Changes since the previous version, or null if there aren't any (or this is the first) */
+    final Message.LocationDelta delta;
+
+    RoomVersion(long version, RoomDefinition definition, Message.LocationDelta delta) {
+        this.version = version;
+        this.definition = definition;
+        this.snapshot = Message.toLocationPayload(definition.getRoomDescription(), version);
+        this.delta = delta;
+    }
+
+    private RoomVersion(RoomVersion previous, RoomDefinition definition) {
+        this.version = previous.version;
+        this.definition = definition;
+        this.snapshot = previous.snapshot;
+        this.delta = null;
+    }
+
+    /**
+     * @param definition First room definition
+     * @return the first version of the room
+     */
+    public static RoomVersion first(RoomDefinition definition) {
+        return new RoomVersion(1, definition, null);
+    }
+
+    /**
+     * @param next New room definition
+     * @return the next version of the room, with what changed since this one
+     */
+    public RoomVersion next(RoomDefinition next) {
+        RoomDescription before = definition.getRoomDescription();
+        RoomDescription after = next.getRoomDescription();
+        Message.LocationDelta d = new Message.LocationDelta(version + 1);
+        boolean changed = false;
+
+        if (!Objects.equals(before.getName(), after.getName())) {
+            d.name = after.getName();
+            changed = true;
+        }
+        if (!Objects.equals(before.getFullName(), after.getFullName())) {
+            d.fullName = after.getFullName();
+            changed = true;
+        }
+        if (!Objects.equals(before.getDescription(), after.getDescription())) {
+            d.description = after.getDescription();
+            changed = true;
+        }
+        if (!Objects.equals(before.getCommands(), after.getCommands())) {
+            d.commands = after.getCommands();
+            changed = true;
+        }
+        d.added = difference(after.getRoomInventory(), before.getRoomInventory());
+        d.removed = difference(before.getRoomInventory(), after.getRoomInventory());
+        changed |= !d.added.isEmpty() || !d.removed.isEmpty();
+
+        // Only item responses (or other hidden things) changed: players have nothing to update
+        return changed ? new RoomVersion(version + 1, next, d) : new RoomVersion(this, next);
+    }
+
+    private static List<String> difference(Set<String> a, Set<String> b) {
+        List<String> result = new ArrayList<>();
+        if (a != null) {
+            for (String s : a) {
+                if (b == null || !b.contains(s)) {
+                    result.add(s);
+                }
+            }
+        }
+        return result;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public RoomDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * @return the whole room description (with the version), already converted to JSON
+     * @see Message#createLocationMessage(String, String)
+     */
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return what changed since the previous version, or null if players have nothing to update
+     */
+    public Message.LocationDelta getDelta() {
+        return delta;
+    }
+
+    @Override
+    public String toString() {
+        return "RoomVersion[" + version + "]";
+    }
+}
@@ -0,0 +1,36 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import dev.ebullient.gameontext.junkyplace.protocol.SlowLog;
+
+/**
+ * The slowest messages handled and sent recently (see {@link SlowLog}), as JSON,
+ * slowest first. Players are identified by a hash of their userId.
+ */
+@Path("/junkyplace/slow")
+public class SlowLogResource {
+
+    @Inject
+    Room room;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> slowest() {
+        SlowLog log = room.getSlowLog();
+        List<SlowLog.Entry> entries = log.getSlowest();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("windowSeconds", log.getWindowNanos() / 1_000_000_000L);
+        result.put("size", log.getSize());
+        result.put("entries", entries);
+        return result;
+    }
+}
@@ -0,0 +1,209 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Hashed timer wheel: a single thread runs any number of timers with
+ * constant cost to schedule or cancel one.
+ *
+ * <p>
+ * Time moves forward in ticks. Each timer is hashed into the slot for the tick
+ * it expires on, along with the number of full turns of the wheel to wait
+ * first. Every tick, the thread walks one slot. Timers are only as precise
+ * as the tick, and tasks run on the wheel thread, so they should be short.
+ * <p>
+ * The wheel also provides a coarse clock ({@link #now()}) that is updated
+ * once per tick: reading it is cheaper than {@link System#nanoTime()}.
+ * Tick listeners run after the timers of each tick, which lets work done
+ * by those timers be batched.
+ */
+public class TimerWheel implements Closeable {
+
+    final long tickNanos;
+    final int mask;
+    final List<Timeout>[] slots;
+    final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    final List<Runnable> tickListeners = new CopyOnWriteArrayList<>();
+    final Thread thread;
+    final long startTime;
+
+    private volatile long tick;
+    private volatile long now;
+    private volatile long tickLag;
+    private volatile boolean running = true;
+
+    /**
+     * @param name Name of the wheel thread
+     * @param tickDuration Duration of each tick
+     * @param wheelSize Number of slots (rounded up to a power of two)
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(String name, Duration tickDuration, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        this.tickNanos = tickDuration.toNanos();
+        this.mask = size - 1;
+        this.slots = new List[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.startTime = System.nanoTime();
+        this.now = startTime;
+
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run a task once the delay has passed.
+     *
+     * @param delay How long to wait (rounded up to a whole tick)
+     * @param task Task to run on the wheel thread
+     * @return handle that can be used to cancel the task
+     */
+    public Timeout schedule(Duration delay, Runnable task) {
+        long ticks = Math.max(1, (delay.toNanos() + tickNanos - 1) / tickNanos);
+        Timeout timeout = new Timeout(tick + ticks, task);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Run a task on the wheel thread at the end of every tick, after the
+     * timers that expired in that tick.
+     *
+     * @param listener Task to run
+     */
+    public void addTickListener(Runnable listener) {
+        tickListeners.add(listener);
+    }
+
+    /**
+     * @return a coarse {@link System#nanoTime()}, updated once per tick
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * @return how late the most recent tick started, in nanoseconds
+     */
+    public long getTickLag() {
+        return tickLag;
+    }
+
+    /**
+     * @return number of timers waiting to run (approximate)
+     */
+    public int size() {
+        int size = pending.size();
+        for (List<Timeout> slot : slots) {
+            size += slot.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        long current = 0;
+        while (running) {
+            long deadline = startTime + (current + 1) * tickNanos;
+            long wait = deadline - System.nanoTime();
+            while (wait > 0 && running) {
+                LockSupport.parkNanos(this, wait);
+                wait = deadline - System.nanoTime();
+            }
+            if (!running) {
+                return;
+            }
+            long time = System.nanoTime();
+            tickLag = time - deadline;
+            now = time;
+
+            addPending(current);
+            expire(slots[(int) (current & mask)]);
+            for (Runnable listener : tickListeners) {
+                runTask(listener);
+            }
+            tick = ++current;
+        }
+    }
+
+    private void addPending(long current) {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            if (t.cancelled) {
+                continue;
+            }
+            long remaining = Math.max(0, t.expiresAt - current);
+            t.rounds = remaining / slots.length;
+            slots[(int) ((current + remaining) & mask)].add(t);
+        }
+    }
+
+    private void expire(List<Timeout> slot) {
+        int keep = 0;
+        for (int i = 0; i < slot.size(); i++) {
+            Timeout t = slot.get(i);
+            if (t.cancelled) {
+                continue;
+            }
+            if (t.rounds > 0) {
+                t.rounds--;
+                slot.set(keep++, t);
+                continue;
+            }
+            runTask(t.task);
+        }
+        slot.subList(keep, slot.size()).clear();
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Log.log(Level.WARNING, this, "Timer task failed", e);
+        }
+    }
+
+    /** A scheduled task */
+    public static class Timeout {
+        final long expiresAt;
+        final Runnable task;
+        long rounds;
+        volatile boolean cancelled;
+
+        Timeout(long expiresAt, Runnable task) {
+            this.expiresAt = expiresAt;
+            this.task = task;
+        }
+
+        /** The task will not be run (if it hasn't been already) */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TimerWheel[tick=" + TimeUnit.NANOSECONDS.toMillis(tickNanos) + "ms, slots=" + slots.length + "]";
+    }
+}
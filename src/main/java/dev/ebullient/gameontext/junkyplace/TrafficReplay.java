@@ -0,0 +1,195 @@
+package dev.ebullient.gameontext.junkyplace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import javax.websocket.DecodeException;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.MessageDecoder;
+import dev.ebullient.gameontext.junkyplace.protocol.TrafficCapture;
+
+/**
+ * Replay a traffic capture (see {@link TrafficCapture}) against a room, and
+ * compare what the room sends with what was captured.
+ *
+ * <p>
+ * Inbound frames are decoded with {@link MessageDecoder} and handled by
+ * {@link Room#handleMessage}, one at a time, in the order they were captured:
+ * either at the original pace (scaled by a speed factor) or as fast as
+ * possible. The room's output is compared, in order, with the captured
+ * output. Bookmarks are ignored, as they depend on when the server started.
+ * Traffic that was handled concurrently may have been captured in a different
+ * order than a single thread produces it: the result says whether the output
+ * only differs in order.
+ * <p>
+ * From the command line: {@code TrafficReplay <capture> [speed] [room definition]},
+ * where a speed of 0 (the default) replays as fast as possible.
+ */
+public class TrafficReplay {
+    static final Pattern BOOKMARK = Pattern.compile("\"bookmark\":\"[^\"]*\"");
+    static final int MAX_REPORTED = 10;
+
+    final Room room;
+    final MessageDecoder decoder = new MessageDecoder();
+
+    /**
+     * @param room Room to replay traffic against
+     */
+    public TrafficReplay(Room room) {
+        this.room = room;
+    }
+
+    /**
+     * @param records Captured frames
+     * @param speed How much faster than captured to replay (e.g. 10), or 0 for as fast as possible
+     * @return comparison of the room's output with the captured output, and timings
+     * @throws DecodeException if a captured inbound frame can't be decoded
+     */
+    public Result replay(List<TrafficCapture.Record> records, double speed) throws DecodeException {
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+        List<Long> handleNanos = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (TrafficCapture.Record r : records) {
+            if (r.getDirection() == TrafficCapture.OUTBOUND) {
+                expected.add(r.getFrame());
+                continue;
+            }
+            if (speed > 0) {
+                long due = start + (long) (r.getNanos() / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long begin = System.nanoTime();
+            Message message = decoder.decode(r.getFrame());
+            room.handleMessage(message, m -> actual.add(m.encode()));
+            handleNanos.add(System.nanoTime() - begin);
+        }
+        return new Result(expected, actual, handleNanos, System.nanoTime() - start);
+    }
+
+    static String normalize(String frame) {
+        return BOOKMARK.matcher(frame).replaceAll("\"bookmark\":\"\"");
+    }
+
+    /** Outcome of a replay */
+    public static class Result {
+        final int expected;
+        final int actual;
+        final List<String> differences = new ArrayList<>();
+        final boolean reordered;
+        final long[] handleNanos;
+        final long elapsedNanos;
+
+        Result(List<String> expected, List<String> actual, List<Long> handleNanos, long elapsedNanos) {
+            this.expected = expected.size();
+            this.actual = actual.size();
+            this.elapsedNanos = elapsedNanos;
+            this.handleNanos = handleNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+
+            String[] e = expected.stream().map(TrafficReplay::normalize).toArray(String[]::new);
+            String[] a = actual.stream().map(TrafficReplay::normalize).toArray(String[]::new);
+            int mismatched = 0;
+            for (int i = 0; i < Math.max(e.length, a.length); i++) {
+                String x = i < e.length ? e[i] : null;
+                String y = i < a.length ? a[i] : null;
+                if (x == null || !x.equals(y)) {
+                    if (mismatched++ < MAX_REPORTED) {
+                        differences.add(i + ": expected " + x + "\n" + i + ": actual   " + y);
+                    }
+                }
+            }
+            if (mismatched > MAX_REPORTED) {
+                differences.add("... " + (mismatched - MAX_REPORTED) + " more");
+            }
+            Arrays.sort(e);
+            Arrays.sort(a);
+            this.reordered = mismatched > 0 && Arrays.equals(e, a);
+        }
+
+        /**
+         * @return true if the room sent the same frames, in the same order, as were captured
+         */
+        public boolean matches() {
+            return differences.isEmpty();
+        }
+
+        /**
+         * @return true if the room sent the same frames as were captured, but in a different order
+         */
+        public boolean isReordered() {
+            return reordered;
+        }
+
+        /**
+         * @return the first few differences between captured and replayed output
+         */
+        public List<String> getDifferences() {
+            return differences;
+        }
+
+        public int getHandled() {
+            return handleNanos.length;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @param percentile 0 to 100
+         * @return time taken to decode and handle an inbound frame, at that percentile
+         */
+        public long getHandleNanos(double percentile) {
+            if (handleNanos.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(percentile / 100 * handleNanos.length) - 1;
+            return handleNanos[Math.max(0, Math.min(handleNanos.length - 1, i))];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            s.append(String.format("%d inbound frames handled in %dms (p50=%dµs, p99=%dµs, max=%dµs)%n",
+                    getHandled(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    TimeUnit.NANOSECONDS.toMicros(getHandleNanos(50)),
+                    TimeUnit.NANOSECONDS.toMicros(getHandleNanos(99)),
+                    TimeUnit.NANOSECONDS.toMicros(getHandleNanos(100))));
+            s.append(String.format("%d frames captured, %d sent: %s", expected, actual,
+                    matches() ? "output matches" : reordered ? "same output, in a different order" : "output differs"));
+            differences.forEach(d -> s.append('\n').append(d));
+            return s.toString();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, DecodeException {
+        if (args.length < 1) {
+            System.err.println("Usage: TrafficReplay <capture> [speed] [room definition]");
+            System.exit(2);
+        }
+        List<TrafficCapture.Record> records = TrafficCapture.read(Paths.get(args[0]));
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+
+        Room room = Room.standalone();
+        if (args.length > 2) {
+            Path definition = Paths.get(args[2]);
+            room.version = room.version.next(RoomDefinition.load(definition));
+        }
+
+        Result result = new TrafficReplay(room).replay(records, speed);
+        System.out.println(result);
+        System.exit(result.matches() ? 0 : 1);
+    }
+}
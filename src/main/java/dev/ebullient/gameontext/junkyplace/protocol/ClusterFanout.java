@@ -0,0 +1,100 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import dev.ebullient.gameontext.junkyplace.Log;
+
+/**
+ * Forwards frames broadcast on this node to the other replicas of the room,
+ * and delivers frames broadcast by other replicas to local sessions.
+ *
+ * <p>
+ * Outbound frames are queued, and published in batches by {@link #flush()}.
+ * Each frame is given the next number in this node's sequence: receivers
+ * remember the highest number delivered from each node, and drop anything
+ * at or below it (duplicates).
+ */
+public class ClusterFanout {
+
+    final RoomBus bus;
+    final int maxBatch;
+    final Consumer<String> localDelivery;
+
+    final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    final Map<String, AtomicLong> delivered = new ConcurrentHashMap<>();
+
+    /** Guarded by this: only used while flushing */
+    private long nextSequence = 1;
+
+    /**
+     * @param bus Bus connecting the replicas
+     * @param maxBatch Maximum number of frames to publish at once
+     * @param localDelivery Sends a frame from another node to all local sessions
+     */
+    public ClusterFanout(RoomBus bus, int maxBatch, Consumer<String> localDelivery) {
+        this.bus = bus;
+        this.maxBatch = maxBatch;
+        this.localDelivery = localDelivery;
+        bus.subscribe(this::receive);
+    }
+
+    /**
+     * Queue a frame for the other nodes (if there are any)
+     *
+     * @param frame Encoded frame
+     */
+    public void forward(String frame) {
+        if (bus.hasPeers()) {
+            pending.add(frame);
+        }
+    }
+
+    /**
+     * Publish queued frames, in batches of at most {@code maxBatch}
+     *
+     * @return number of frames published
+     */
+    public synchronized int flush() {
+        int sent = 0;
+        String frame = pending.poll();
+        while (frame != null) {
+            List<String> frames = new ArrayList<>();
+            do {
+                frames.add(frame);
+                frame = frames.size() < maxBatch ? pending.poll() : null;
+            } while (frame != null);
+
+            FrameBatch batch = new FrameBatch(bus.nodeId(), nextSequence, frames);
+            nextSequence += frames.size();
+            sent += frames.size();
+            try {
+                bus.publish(batch);
+            } catch (RuntimeException e) {
+                Log.log(Level.WARNING, this, "Unable to publish " + batch, e);
+            }
+            frame = pending.poll();
+        }
+        return sent;
+    }
+
+    void receive(FrameBatch batch) {
+        if (batch.origin.equals(bus.nodeId()) || batch.frames.isEmpty()) {
+            return;
+        }
+        AtomicLong highest = delivered.computeIfAbsent(batch.origin, k -> new AtomicLong());
+        long last = batch.firstSequence + batch.frames.size() - 1;
+        long seen = highest.getAndAccumulate(last, Math::max);
+
+        for (int i = (int) Math.max(0, seen + 1 - batch.firstSequence); i < batch.frames.size(); i++) {
+            localDelivery.accept(batch.frames.get(i));
+        }
+    }
+}
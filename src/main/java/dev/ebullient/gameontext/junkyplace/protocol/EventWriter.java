@@ -0,0 +1,231 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Writes an event message straight to JSON, rendering {@link Template}s
+ * into the content object as it goes.
+ *
+ * <pre>
+ * player,&lt;target&gt;,{
+ *   "type": "event",
+ *   "content": {
+ *     "*": "general text for everyone",
+ *     "&lt;userId&gt;": "text specific to a player"
+ *   },
+ *   "bookmark": "String representing last message seen"
+ * }
+ * </pre>
+ *
+ * Content is written in the order it is added. A writer builds one message.
+ * <p>
+ * The writer remembers where each entry of the content object is, so a
+ * broadcast with text for specific players can later be split into
+ * {@link Variants}: the general text for everyone else, and a targeted frame
+ * for each player, without writing (or escaping) the text again.
+ */
+public class EventWriter {
+
+    final String targetId;
+    final StringBuilder payload = new StringBuilder(160);
+    final int contentStart;
+
+    /** Content entries: key, and where the entry starts and ends in the payload */
+    String[] keys = new String[2];
+    int[] bounds = new int[4];
+    int entries;
+
+    /**
+     * @return writer for an event sent to all players
+     */
+    public static EventWriter broadcast() {
+        return new EventWriter(Message.ALL);
+    }
+
+    /**
+     * @param userId Targeted player
+     * @return writer for an event sent to one player
+     */
+    public static EventWriter to(String userId) {
+        return new EventWriter(userId);
+    }
+
+    EventWriter(String targetId) {
+        this.targetId = targetId;
+        payload.append("{\"type\":\"event\",\"content\":{");
+        this.contentStart = payload.length();
+    }
+
+    /** Text shown to all players */
+    public EventWriter all(String text) {
+        return user(Message.ALL, text);
+    }
+
+    /** Text shown to all players */
+    public EventWriter all(Template template, String a) {
+        return user(Message.ALL, template, a);
+    }
+
+    /** Text shown to all players */
+    public EventWriter all(Template template, String a, String b) {
+        return user(Message.ALL, template, a, b);
+    }
+
+    /** Text shown to one player */
+    public EventWriter user(String userId, String text) {
+        key(userId);
+        if (text == null) {
+            payload.append("null");
+        } else {
+            payload.append('"');
+            Template.escape(text, payload);
+            payload.append('"');
+        }
+        return end();
+    }
+
+    /** Text shown to one player */
+    public EventWriter user(String userId, Template template, String a) {
+        return user(userId, template, a, null);
+    }
+
+    /** Text shown to one player */
+    public EventWriter user(String userId, Template template, String a, String b) {
+        key(userId);
+        payload.append('"');
+        template.render(payload, a, b);
+        payload.append('"');
+        return end();
+    }
+
+    /**
+     * @return constructed message
+     */
+    public Message build() {
+        payload.append("},\"bookmark\":\"").append(Message.bookmark()).append("\"}");
+        Layout layout = entries > 1 && Message.ALL.equals(targetId)
+                ? new Layout(contentStart, Arrays.copyOf(keys, entries), Arrays.copyOf(bounds, entries * 2))
+                : null;
+        return Message.createEvent(targetId, payload.toString(), layout);
+    }
+
+    private void key(String userId) {
+        if (entries > 0) {
+            payload.append(',');
+        }
+        if (entries == keys.length) {
+            keys = Arrays.copyOf(keys, entries * 2);
+            bounds = Arrays.copyOf(bounds, entries * 4);
+        }
+        keys[entries] = userId;
+        bounds[entries * 2] = payload.length();
+        payload.append('"');
+        Template.escape(userId, payload);
+        payload.append("\":");
+    }
+
+    private EventWriter end() {
+        bounds[entries * 2 + 1] = payload.length();
+        entries++;
+        return this;
+    }
+
+    /** Where each content entry of a broadcast event is, so it can be split later */
+    static class Layout {
+        final int contentStart;
+        final String[] keys;
+        final int[] bounds;
+
+        Layout(int contentStart, String[] keys, int[] bounds) {
+            this.contentStart = contentStart;
+            this.keys = keys;
+            this.bounds = bounds;
+        }
+
+        /**
+         * @param payload Payload of the broadcast event
+         * @return general and per-player variants, or null if the event has no general text
+         */
+        Variants split(String payload) {
+            int general = Arrays.asList(keys).indexOf(Message.ALL);
+            if (general < 0) {
+                return null;
+            }
+            String head = payload.substring(0, contentStart);
+            String tail = payload.substring(bounds[bounds.length - 1]);
+
+            String[] userIds = new String[keys.length - 1];
+            Message[] targeted = new Message[keys.length - 1];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (i != general) {
+                    userIds[n] = keys[i];
+                    targeted[n++] = Message.createEvent(keys[i], head + entry(payload, i) + tail, null);
+                }
+            }
+            return new Variants(Message.createEvent(Message.ALL, head + entry(payload, general) + tail, null),
+                    userIds, targeted);
+        }
+
+        private String entry(String payload, int i) {
+            return payload.substring(bounds[i * 2], bounds[i * 2 + 1]);
+        }
+    }
+
+    /**
+     * A broadcast event split up by recipient: players with their own text get a
+     * frame targeted at them (and don't need the general text), everyone else
+     * gets the general text alone. All variants share the original bookmark.
+     */
+    public static class Variants {
+        final Message general;
+        final String[] userIds;
+        final Message[] targeted;
+
+        Variants(Message general, String[] userIds, Message[] targeted) {
+            this.general = general;
+            this.userIds = userIds;
+            this.targeted = targeted;
+        }
+
+        /** @return the event with only the text for everyone */
+        public Message getGeneral() {
+            return general;
+        }
+
+        /** @return number of players with their own text */
+        public int size() {
+            return userIds.length;
+        }
+
+        public String getUserId(int i) {
+            return userIds[i];
+        }
+
+        /** @return the event with only the text for the i-th player */
+        public Message getTargeted(int i) {
+            return targeted[i];
+        }
+
+        /**
+         * A session used by more than one player gets the whole event: each split
+         * frame would leave out the general text, or another player's own text.
+         *
+         * @param carried Players using a session
+         * @param whole The event these variants were split from
+         * @return the event to send on the session
+         */
+        public Message select(Set<String> carried, Message whole) {
+            if (carried.size() > 1) {
+                return whole;
+            }
+            for (int i = 0; i < userIds.length; i++) {
+                if (carried.contains(userIds[i])) {
+                    return targeted[i];
+                }
+            }
+            return general;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the room's message path.
+ *
+ * <p>
+ * Events are only written while a recording with them enabled is running,
+ * e.g. {@code jcmd <pid> JFR.start settings=profile}. When nothing is
+ * recording, an event that doesn't escape the method that creates it is
+ * optimized away. Fields are only filled in once {@link Event#shouldCommit()}
+ * says the event will be kept. Stack traces are not collected.
+ * <p>
+ * Sends complete on another thread, so a {@link Send} event is only created
+ * when sends are being recorded.
+ */
+public final class FlightEvents {
+    static final String CATEGORY = "Junkyplace";
+
+    private FlightEvents() {
+    }
+
+    /** Message received by an endpoint, from arrival to the room being done with it */
+    @Name("junkyplace.Receive")
+    @Label("Message Received")
+    @Category({ CATEGORY, "Endpoint" })
+    @StackTrace(false)
+    public static class Receive extends Event {
+        @Label("Target")
+        public String target;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadSize;
+    }
+
+    /** Message handled by the room */
+    @Name("junkyplace.Handle")
+    @Label("Message Handled")
+    @Category({ CATEGORY, "Room" })
+    @StackTrace(false)
+    public static class Handle extends Event {
+        @Label("Target")
+        public String target;
+
+        @Label("Verb")
+        @Description("Command (e.g. /go), chat, or the message target")
+        public String verb;
+    }
+
+    /** Inbound frame decoded into a message */
+    @Name("junkyplace.Decode")
+    @Label("Message Decoded")
+    @Category({ CATEGORY, "Protocol" })
+    @StackTrace(false)
+    public static class Decode extends Event {
+        @Label("Target")
+        public String target;
+
+        @Label("Frame Size")
+        @DataAmount
+        public int frameSize;
+    }
+
+    /** Outbound message encoded into a frame */
+    @Name("junkyplace.Encode")
+    @Label("Message Encoded")
+    @Category({ CATEGORY, "Protocol" })
+    @StackTrace(false)
+    public static class Encode extends Event {
+        @Label("Target")
+        public String target;
+
+        @Label("Frame Size")
+        @DataAmount
+        public int frameSize;
+    }
+
+    /** Message sent to every session connected to this node */
+    @Name("junkyplace.Broadcast")
+    @Label("Message Broadcast")
+    @Category({ CATEGORY, "Endpoint" })
+    @StackTrace(false)
+    public static class Broadcast extends Event {
+        @Label("Target")
+        public String target;
+
+        @Label("Recipients")
+        public int recipients;
+
+        @Label("Frame Size")
+        @DataAmount
+        public int frameSize;
+    }
+
+    /** Asynchronous send to one session, from the send starting to it completing */
+    @Name("junkyplace.Send")
+    @Label("Send Completed")
+    @Category({ CATEGORY, "Endpoint" })
+    @StackTrace(false)
+    public static class Send extends Event {
+        /** Used to ask whether sends are being recorded */
+        static final Send PROBE = new Send();
+
+        @Label("Target")
+        public String target;
+
+        @Label("Frame Size")
+        @DataAmount
+        public int frameSize;
+
+        @Label("Failed")
+        public boolean failed;
+
+        /**
+         * @return a started event, or null if sends aren't being recorded
+         */
+        static Send start() {
+            if (!PROBE.isEnabled()) {
+                return null;
+            }
+            Send event = new Send();
+            event.begin();
+            return event;
+        }
+
+        void complete(String target, int frameSize, boolean failed) {
+            end();
+            if (shouldCommit()) {
+                this.target = target;
+                this.frameSize = frameSize;
+                this.failed = failed;
+                commit();
+            }
+        }
+    }
+}
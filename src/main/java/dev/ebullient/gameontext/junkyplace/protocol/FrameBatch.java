@@ -0,0 +1,36 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.List;
+
+/**
+ * Encoded frames sent from one node, numbered consecutively
+ * starting from {@code firstSequence}.
+ */
+public class FrameBatch {
+    final String origin;
+    final long firstSequence;
+    final List<String> frames;
+
+    public FrameBatch(String origin, long firstSequence, List<String> frames) {
+        this.origin = origin;
+        this.firstSequence = firstSequence;
+        this.frames = frames;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public List<String> getFrames() {
+        return frames;
+    }
+
+    @Override
+    public String toString() {
+        return origin + "[" + firstSequence + ".." + (firstSequence + frames.size() - 1) + "]";
+    }
+}
@@ -0,0 +1,84 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link MessageSink} that keeps messages in memory, for driving the room
+ * without a WebSocket (tests, tools and simulations).
+ *
+ * <p>
+ * Sending stores a reference in a fixed ring and counts the message by
+ * target: nothing is encoded or allocated, so the cost of the sink doesn't
+ * hide the cost of the room. Only the most recent messages (up to the
+ * capacity) are kept.
+ * <p>
+ * Not thread-safe: use one sink per thread.
+ */
+public class InMemorySink implements MessageSink {
+
+    final Message[] ring;
+    final int mask;
+    final long[] byTarget = new long[Message.Target.values().length];
+    long count;
+
+    /**
+     * @param capacity Number of recent messages to keep (rounded up to a power of two)
+     */
+    public InMemorySink(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1);
+        this.ring = new Message[size];
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void sendMessage(Message message) {
+        ring[(int) (count++ & mask)] = message;
+        byTarget[message.getTarget().ordinal()]++;
+    }
+
+    /**
+     * @return number of messages sent (since the last {@link #clear()})
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param target Message target
+     * @return number of messages sent with that target
+     */
+    public long getCount(Message.Target target) {
+        return byTarget[target.ordinal()];
+    }
+
+    /**
+     * @return the most recent messages (up to the capacity), oldest first
+     */
+    public List<Message> getMessages() {
+        int kept = (int) Math.min(count, ring.length);
+        List<Message> result = new ArrayList<>(kept);
+        for (long i = count - kept; i < count; i++) {
+            result.add(ring[(int) (i & mask)]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the most recent message, or null if nothing has been sent
+     */
+    public Message last() {
+        return count == 0 ? null : ring[(int) ((count - 1) & mask)];
+    }
+
+    /** Forget everything that was sent */
+    public void clear() {
+        int kept = (int) Math.min(count, ring.length);
+        for (long i = count - kept; i < count; i++) {
+            ring[(int) (i & mask)] = null;
+        }
+        Arrays.fill(byTarget, 0);
+        count = 0;
+    }
+}
@@ -0,0 +1,235 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import dev.ebullient.gameontext.junkyplace.Log;
+
+/**
+ * Hands decoded messages from the threads reading connections to a fixed set
+ * of consumer threads running the room, through a ring of preallocated slots
+ * (in the style of the LMAX Disruptor).
+ *
+ * <p>
+ * Publishing claims the next sequence number, fills in that slot, and marks it
+ * published: nothing is allocated per message, and memory use is fixed by the
+ * size of the ring. If the ring is full, the publisher waits for consumers to
+ * catch up (backpressure on the connection).
+ * <p>
+ * Every consumer reads every slot, in order, and handles the messages from the
+ * sources (sessions) it owns: messages from one session are always handled by
+ * the same thread, in the order they arrived. Consumers take everything that
+ * has been published in one batch, and only publish their progress once per
+ * batch. A slot is reused once every consumer has moved past it. Slots keep
+ * their references until they are reused.
+ *
+ * @param <S> Source of messages (the session)
+ */
+public class InboundRing<S> implements Closeable {
+
+    /** How consumers wait for messages to arrive */
+    public enum WaitStrategy {
+        /** Lowest latency, but each consumer keeps a processor busy */
+        SPIN,
+        /** Spin, yielding the processor to other threads */
+        YIELD,
+        /** Spin briefly, then park: consumers use no processor while the room is quiet */
+        PARK
+    }
+
+    /** Processes messages taken from the ring */
+    @FunctionalInterface
+    public interface Handler<S> {
+        void handle(S source, Message message);
+    }
+
+    static final int SPIN_TRIES = 100;
+    static final long PARK_NANOS = 50_000;
+
+    final Slot<S>[] slots;
+    final int mask;
+    final AtomicLong claimed = new AtomicLong(-1);
+    final Consumer[] consumers;
+    final WaitStrategy waitStrategy;
+    final Handler<S> handler;
+    volatile boolean running = true;
+
+    /**
+     * @param name Prefix for consumer thread names
+     * @param size Number of slots (rounded up to a power of two)
+     * @param consumers Number of consumer threads
+     * @param waitStrategy How consumers wait for messages
+     * @param handler Handles each message (on a consumer thread)
+     */
+    @SuppressWarnings("unchecked")
+    public InboundRing(String name, int size, int consumers, WaitStrategy waitStrategy, Handler<S> handler) {
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1);
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot<>();
+        }
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.handler = handler;
+
+        this.consumers = new InboundRing.Consumer[Math.max(1, consumers)];
+        for (int i = 0; i < this.consumers.length; i++) {
+            this.consumers[i] = new Consumer(i, name + "-" + i);
+        }
+        for (Consumer c : this.consumers) {
+            c.thread.start();
+        }
+    }
+
+    /**
+     * Add a message to the ring. Safe to call from any number of threads.
+     * Waits if the ring is full.
+     *
+     * @param source Where the message came from
+     * @param message Decoded message
+     */
+    public void publish(S source, Message message) {
+        long sequence = claimed.incrementAndGet();
+        long wrapPoint = sequence - slots.length;
+        int tries = 0;
+        while (wrapPoint >= minimumConsumed()) {
+            if (!running) {
+                return;
+            }
+            tries = backOff(tries);
+        }
+
+        Slot<S> slot = slots[(int) (sequence & mask)];
+        slot.source = source;
+        slot.message = message;
+        slot.published = sequence;
+
+        for (Consumer c : consumers) {
+            if (c.waiting) {
+                LockSupport.unpark(c.thread);
+            }
+        }
+    }
+
+    /**
+     * @return number of messages published but not yet handled by every consumer
+     */
+    public long backlog() {
+        return Math.max(0, claimed.get() - minimumConsumed());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Consumer c : consumers) {
+            LockSupport.unpark(c.thread);
+        }
+    }
+
+    private long minimumConsumed() {
+        long min = Long.MAX_VALUE;
+        for (Consumer c : consumers) {
+            min = Math.min(min, c.consumed);
+        }
+        return min;
+    }
+
+    private static int backOff(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(1_000);
+        }
+        return tries + 1;
+    }
+
+    static class Slot<S> {
+        S source;
+        Message message;
+        volatile long published = -1;
+    }
+
+    class Consumer implements Runnable {
+        final int id;
+        final Thread thread;
+
+        /** Highest sequence this consumer is done with */
+        volatile long consumed = -1;
+        volatile boolean waiting;
+
+        Consumer(int id, String name) {
+            this.id = id;
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            int tries = 0;
+            while (running) {
+                // Take everything that has been published so far as one batch
+                long last = next - 1;
+                while (slots[(int) ((last + 1) & mask)].published == last + 1) {
+                    last++;
+                }
+                if (last < next) {
+                    tries = await(tries);
+                    continue;
+                }
+                tries = 0;
+
+                for (long sequence = next; sequence <= last; sequence++) {
+                    Slot<S> slot = slots[(int) (sequence & mask)];
+                    if (owns(slot.source)) {
+                        try {
+                            handler.handle(slot.source, slot.message);
+                        } catch (RuntimeException e) {
+                            Log.log(Level.WARNING, this, "Unable to handle message", e);
+                        }
+                    }
+                }
+                consumed = last;
+                next = last + 1;
+            }
+        }
+
+        private boolean owns(S source) {
+            if (consumers.length == 1) {
+                return true;
+            }
+            int h = source.hashCode();
+            return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % consumers.length == id;
+        }
+
+        private int await(int tries) {
+            switch (waitStrategy) {
+                case SPIN:
+                    Thread.onSpinWait();
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                default:
+                    if (tries < SPIN_TRIES) {
+                        Thread.onSpinWait();
+                    } else {
+                        waiting = true;
+                        // check again: a publisher may not have seen the flag
+                        if (slots[(int) ((consumed + 1) & mask)].published != consumed + 1) {
+                            LockSupport.parkNanos(this, PARK_NANOS);
+                        }
+                        waiting = false;
+                    }
+                    break;
+            }
+            return tries + 1;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import io.quarkus.arc.DefaultBean;
+
+/**
+ * In-process {@link RoomBus}: batches are delivered synchronously to the
+ * other nodes that have {@link #join() joined} this one.
+ *
+ * <p>
+ * On its own (the default), this is a single node with no peers, and
+ * nothing is forwarded. Tests can join several nodes together to
+ * stand in for separate replicas.
+ */
+@DefaultBean
+@ApplicationScoped
+public class LoopbackRoomBus implements RoomBus {
+
+    final String nodeId = UUID.randomUUID().toString();
+    final List<LoopbackRoomBus> nodes;
+    final List<Consumer<FrameBatch>> receivers = new CopyOnWriteArrayList<>();
+
+    public LoopbackRoomBus() {
+        this.nodes = new CopyOnWriteArrayList<>();
+        nodes.add(this);
+    }
+
+    private LoopbackRoomBus(List<LoopbackRoomBus> nodes) {
+        this.nodes = nodes;
+        nodes.add(this);
+    }
+
+    /**
+     * @return a new node, connected to this one (and all other joined nodes)
+     */
+    public LoopbackRoomBus join() {
+        return new LoopbackRoomBus(nodes);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean hasPeers() {
+        return nodes.size() > 1;
+    }
+
+    @Override
+    public void publish(FrameBatch batch) {
+        for (LoopbackRoomBus node : nodes) {
+            if (node != this) {
+                for (Consumer<FrameBatch> r : node.receivers) {
+                    r.accept(batch);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<FrameBatch> receiver) {
+        receivers.add(receiver);
+    }
+}
@@ -1,7 +1,6 @@
 package dev.ebullient.gameontext.junkyplace.protocol;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
@@ -10,14 +9,29 @@ import javax.websocket.DecodeException;
 
 import org.jboss.logmanager.Level;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import dev.ebullient.gameontext.junkyplace.Log;
 import dev.ebullient.gameontext.junkyplace.RoomDescription;
 import io.quarkus.runtime.annotations.RegisterForReflection;
 
-@RegisterForReflection
+/**
+ * Only the payload classes that Jackson reads or writes are registered for
+ * reflection: this keeps the native image small.
+ */
+@RegisterForReflection(targets = {
+        RoomDescription.class,
+        Message.RoomChat.class,
+        Message.RoomPlayerLocation.class,
+        Message.LocationDelta.class,
+        Message.ClientMessage.class,
+        Message.MediatorRoomHello.class,
+        Message.MediatorRoomGoodbye.class
+})
 public class Message {
 
     static final ObjectMapper mapper = new ObjectMapper();
@@ -35,13 +49,29 @@ public class Message {
      * prefix for bookmark: customize it! Just doing something here to make it less
      * likely to collide with other rooms.
      */
-    private static String bookmark() {
+    static String bookmark() {
         return "JunkyPlace-" + bookmark.incrementAndGet();
     }
 
     /** Incrementing message id for bookmark */
     private static AtomicLong bookmark = new AtomicLong(0);
 
+    /**
+     * @return the most recently issued bookmark id
+     */
+    public static long currentBookmark() {
+        return bookmark.get();
+    }
+
+    /**
+     * Resume bookmark ids after a restart. Bookmark ids only move forward.
+     *
+     * @param value Last bookmark id known to have been used
+     */
+    public static void restoreBookmark(long value) {
+        bookmark.accumulateAndGet(value, Math::max);
+    }
+
     /**
      * Create an event targeted at a specific player (still use broadcast to send to
      * all connections)
@@ -56,8 +86,21 @@ public class Message {
         // },
         // "bookmark": "String representing last message seen"
         // }
-        EventMessage msg = new EventMessage(userid, messageForUser);
-        return new Message(Target.player, userid, valueToJsonString(msg));
+        return EventWriter.to(userid).user(userid, messageForUser).build();
+    }
+
+    /**
+     * Event whose payload was written by an {@link EventWriter}
+     *
+     * @param targetId Specific player id or '*'
+     * @param payload Event JSON
+     * @param layout Where the content entries are (broadcasts with per-player text), or null
+     * @return constructed message
+     */
+    static Message createEvent(String targetId, String payload, EventWriter.Layout layout) {
+        Message message = new Message(Target.player, targetId, payload);
+        message.layout = layout;
+        return message;
     }
 
     /**
@@ -70,12 +113,11 @@ public class Message {
      * @return constructed message
      */
     public static Message createBroadcastEvent(String allContent, String... pairs) {
-        EventMessage msg = new EventMessage();
-        msg.content.put("*", allContent);
+        EventWriter event = EventWriter.broadcast().all(allContent);
         if (pairs != null) {
             if (pairs.length % 2 == 0) {
                 for (int i = 0; i < pairs.length; i += 2) {
-                    msg.content.put(pairs[i], pairs[i + 1]);
+                    event.user(pairs[i], pairs[i + 1]);
                 }
             } else {
                 Log.log(Level.WARNING, Message.class,
@@ -83,7 +125,27 @@ public class Message {
                         (Object[]) pairs);
             }
         }
-        return new Message(Target.player, ALL, valueToJsonString(msg));
+        return event.build();
+    }
+
+    /**
+     * Construct an event that broadcasts the same message to all players.
+     *
+     * @return constructed message
+     */
+    public static Message createBroadcastEvent(String allContent) {
+        return EventWriter.broadcast().all(allContent).build();
+    }
+
+    /**
+     * Construct an event that broadcasts to all players, with a different
+     * message for one player.
+     *
+     * @return constructed message
+     * @see EventWriter
+     */
+    public static Message createBroadcastEvent(String allContent, String userId, String messageForUser) {
+        return EventWriter.broadcast().all(allContent).user(userId, messageForUser).build();
     }
 
     /**
@@ -109,6 +171,57 @@ public class Message {
         return new Message(Target.player, userId, valueToJsonString(roomDescription));
     }
 
+    /**
+     * Send information about the room to the client using a location payload
+     * that was encoded ahead of time.
+     *
+     * @param userId
+     * @param locationPayload Room attributes, already converted to JSON
+     * @return constructed message
+     * @see #toLocationPayload(RoomDescription)
+     */
+    public static Message createLocationMessage(String userId, String locationPayload) {
+        return new Message(Target.player, userId, locationPayload);
+    }
+
+    /**
+     * Convert the room description to JSON once, so it can be reused
+     * for every location message.
+     *
+     * @param roomDescription Room attributes
+     * @return JSON payload for a location message
+     * @see #createLocationMessage(String, String)
+     */
+    public static String toLocationPayload(RoomDescription roomDescription) {
+        return valueToJsonString(roomDescription);
+    }
+
+    /**
+     * Convert the room description to JSON once for a version of the room.
+     * Players that have this version can be sent {@link LocationDelta}s
+     * for later versions instead of the whole description.
+     *
+     * @param roomDescription Room attributes
+     * @param version Version of the room
+     * @return JSON payload for a location message
+     * @see #createLocationMessage(String, String)
+     */
+    public static String toLocationPayload(RoomDescription roomDescription, long version) {
+        ObjectNode node = mapper.valueToTree(roomDescription);
+        node.put("version", version);
+        return valueToJsonString(node);
+    }
+
+    /**
+     * Tell everyone in the room what changed in the room since the previous version.
+     *
+     * @param delta What changed
+     * @return constructed message
+     */
+    public static Message createLocationDeltaMessage(LocationDelta delta) {
+        return new Message(Target.player, ALL, valueToJsonString(delta));
+    }
+
     /**
      * Indicates that a player can leave by the requested exit (`exitId`).
      *
@@ -129,11 +242,36 @@ public class Message {
      * @return constructed message
      */
     public static Message createExitMessage(String userId, String exitId, String content) {
+        return new Message(Target.playerLocation, userId, toExitPayload(exitId, content));
+    }
+
+    /**
+     * Indicates that a player can leave by an exit, using a payload that was
+     * encoded ahead of time.
+     *
+     * @param userId Targeted user
+     * @param exitPayload Exit id and message, already converted to JSON
+     * @return constructed message
+     * @see #toExitPayload(String, String)
+     */
+    public static Message createExitMessageFromPayload(String userId, String exitPayload) {
+        return new Message(Target.playerLocation, userId, exitPayload);
+    }
+
+    /**
+     * Convert an exit (and the message shown when leaving through it) to JSON once,
+     * so it can be reused every time a player leaves that way.
+     *
+     * @param exitId Direction the user will be exiting (used as a lookup key)
+     * @param content Message to be displayed when the player leaves the room
+     * @return JSON payload for an exit message
+     * @see #createExitMessageFromPayload(String, String)
+     */
+    public static String toExitPayload(String exitId, String content) {
         if (exitId == null) {
             throw new IllegalArgumentException("exitId is required");
         }
-        RoomPlayerLocation msg = new RoomPlayerLocation(exitId, content == null ? "Fare thee well" : content);
-        return new Message(Target.playerLocation, userId, valueToJsonString(msg));
+        return valueToJsonString(new RoomPlayerLocation(exitId, content == null ? "Fare thee well" : content));
     }
 
     /**
@@ -188,7 +326,7 @@ public class Message {
      * @return constructed message
      */
     public static Message createRoomJoin(String roomId, String userId, String username, long version) {
-        MediatorRoomHello roomJoin = new MediatorRoomHello(false, username, userId, version);
+        MediatorRoomHello roomJoin = new MediatorRoomHello(false, userId, username, version);
         return new Message(Target.roomJoin, roomId, valueToJsonString(roomJoin));
     }
 
@@ -223,14 +361,30 @@ public class Message {
      */
     private final String payload;
 
+    /**
+     * Encoded form of the message: outbound messages are encoded once
+     * (when constructed), and re-used for every session they are sent to.
+     */
+    private String frame;
+
+    /** Parsed payload of an inbound message, see {@link #getParsedBody()} */
+    private Object body;
+
+    /** Broadcast events with text for specific players can be split by recipient */
+    private EventWriter.Layout layout;
+    private EventWriter.Variants variants;
+
     /**
      * Parse a string read from the WebSocket, and convert it into a message
      *
      * @param s String read from WebSocket
-     * @throws DecodeException
+     * @throws DecodeException if the string is badly formed, or has an unknown target
      * @see MessageDecoder#decode(String)
      */
     public Message(String s) throws DecodeException {
+        FlightEvents.Decode event = new FlightEvents.Decode();
+        event.begin();
+
         // this is getting parsed in a low-level/raw way.
         // We don't split on commas arbitrarily: there are commas in the
         // json payload, which means unnecessary splitting and joining.
@@ -254,8 +408,19 @@ public class Message {
 
         // The flowTarget is always present.
         // The destination may or may not be present, but shouldn't return null.
-        this.target = Target.valueOf(list.get(0));
+        try {
+            this.target = Target.valueOf(list.get(0));
+        } catch (IllegalArgumentException e) {
+            throw new DecodeException(s, "Unknown target: \"" + list.get(0) + "\"", e);
+        }
         this.targetId = list.size() > 1 ? list.get(1) : "";
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = target.name();
+            event.frameSize = s.length();
+            event.commit();
+        }
     }
 
     /**
@@ -269,6 +434,7 @@ public class Message {
         this.target = target;
         this.targetId = targetId == null ? "" : targetId;
         this.payload = payload;
+        this.frame = buildFrame();
     }
 
     /**
@@ -285,6 +451,22 @@ public class Message {
         return target;
     }
 
+    /**
+     * @return length of the JSON payload, in characters
+     */
+    public int getPayloadSize() {
+        return payload.length();
+    }
+
+    /**
+     * @param prefix Start of a JSON payload, e.g. <code>{"type":"chat"</code>
+     * @return true if the payload starts with the prefix
+     * @see OutboundLanes.Lane#of(Message)
+     */
+    boolean payloadStartsWith(String prefix) {
+        return payload.startsWith(prefix);
+    }
+
     /**
      * @return message target id, should always be the room id.
      */
@@ -292,24 +474,50 @@ public class Message {
         return targetId;
     }
 
+    /**
+     * The payload is parsed once: later calls return the same object.
+     */
     @SuppressWarnings("unchecked")
     public <T> T getParsedBody() {
+        Object result = body;
+        if (result == null) {
+            body = result = parseBody();
+        }
+        return (T) result;
+    }
+
+    /**
+     * A broadcast event that has text for specific players, split into a frame
+     * with only the general text and a frame for each of those players.
+     * The variants are encoded once, the first time they are asked for.
+     *
+     * @return variants, or null if this message can't be split
+     */
+    public EventWriter.Variants getVariants() {
+        EventWriter.Variants result = variants;
+        if (result == null && layout != null) {
+            variants = result = layout.split(payload);
+        }
+        return result;
+    }
+
+    private Object parseBody() {
         try {
             switch (target) {
                 case room:
-                    return (T) mapper.readValue(payload, ClientMessage.class);
+                    return mapper.readValue(payload, ClientMessage.class);
                 case roomHello:
-                    return (T) mapper.readValue(payload, MediatorRoomHello.class);
+                    return mapper.readValue(payload, MediatorRoomHello.class);
                 case roomJoin:
-                    return (T) mapper.readValue(payload, MediatorRoomHello.class);
+                    return mapper.readValue(payload, MediatorRoomHello.class);
                 case roomGoodbye:
-                    return (T) mapper.readValue(payload, MediatorRoomGoodbye.class);
+                    return mapper.readValue(payload, MediatorRoomGoodbye.class);
                 case roomPart:
-                    return (T) mapper.readValue(payload, MediatorRoomGoodbye.class);
+                    return mapper.readValue(payload, MediatorRoomGoodbye.class);
                 default:
                     return null;
             }
-        } catch (ClassCastException | JsonProcessingException e) {
+        } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
         }
@@ -321,7 +529,19 @@ public class Message {
      * @see MessageEncoder#encode(Message)
      */
     public String encode() {
-        StringBuilder result = new StringBuilder();
+        String result = frame;
+        if (result == null) {
+            // inbound messages are only encoded on demand (String is immutable, races are benign)
+            frame = result = buildFrame();
+        }
+        return result;
+    }
+
+    private String buildFrame() {
+        FlightEvents.Encode event = new FlightEvents.Encode();
+        event.begin();
+
+        StringBuilder result = new StringBuilder(target.name().length() + targetId.length() + payload.length() + 2);
         result.append(target).append(',');
 
         if (!targetId.isEmpty()) {
@@ -329,8 +549,15 @@ public class Message {
         }
 
         result.append(payload);
+        String encoded = result.toString();
 
-        return result.toString();
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = target.name();
+            event.frameSize = encoded.length();
+            event.commit();
+        }
+        return encoded;
     }
 
     @Override
@@ -395,13 +622,16 @@ public class Message {
 
     /**
      * Ack message: this supports both version 1 & 2 {@code ack,{\"version\":[1,2]}}
+     * <p>
+     * The frame is encoded during static initialization, which happens
+     * when the native image is built.
      */
     public static final Message ACK_MSG = new Message(Target.ack, "", "{\"version\":[1,2]}");
 
     /** Messages sent to everyone */
-    private static final String ALL = "*";
+    static final String ALL = "*";
 
-    // Room -> Client: Event message
+    // Room -> Client: Event message (see EventWriter)
     // player,*,{
     //   "type": "event",
     //   "content": {
@@ -410,18 +640,6 @@ public class Message {
     //   },
     //   "bookmark": "String representing last message seen"
     // }
-    public static class EventMessage {
-        public String type = "event";
-        public Map<String, String> content = new HashMap<>();
-        public String bookmark = bookmark();
-
-        EventMessage() {
-        }
-
-        EventMessage(String userid, String message) {
-            content.put(userid, message);
-        }
-    }
 
     // Room -> Mediator -> Client: Chat message
     // player,*,{
@@ -465,6 +683,35 @@ public class Message {
         }
     }
 
+    // Room -> Mediator -> Client: Location update (only what changed since the previous version)
+    //  player,*,{
+    //      "type": "locationDelta",
+    //      "version": 2,
+    //      "fullName": "New full name",
+    //      "description": "New description",
+    //      "commands": { "/custom" : "All commands, if any of them changed" },
+    //      "added": ["itemC"],
+    //      "removed": ["itemA"]
+    //  }
+    @JsonInclude(Include.NON_EMPTY)
+    public static class LocationDelta {
+        public String type = "locationDelta";
+        public long version;
+        public String name;
+        public String fullName;
+        public String description;
+        public Map<String, String> commands;
+        public List<String> added;
+        public List<String> removed;
+
+        public LocationDelta() {
+        }
+
+        public LocationDelta(long version) {
+            this.version = version;
+        }
+    }
+
     // Client -> Mediator -> Room: chat/command message
     //  room,<roomId>,{
     //      "username": "username",
@@ -532,7 +779,7 @@ public class Message {
         MediatorRoomGoodbye() {
         }
 
-        MediatorRoomGoodbye(boolean isGoodbye, String username, String userId) {
+        MediatorRoomGoodbye(boolean isGoodbye, String userId, String username) {
             this.type = isGoodbye ? "roomGoodbye" : "roomPart";
             this.userId = userId;
             this.username = username;
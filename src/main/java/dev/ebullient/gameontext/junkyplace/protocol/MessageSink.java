@@ -0,0 +1,23 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+/**
+ * Where the room sends outbound messages. Each WebSocket endpoint
+ * implementation provides one.
+ *
+ * @see RoomEndpoint
+ * @see VertxRoomEndpoint
+ */
+public interface MessageSink {
+
+    /**
+     * Send a message to every connected session.
+     * <p>
+     * We are effectively always broadcasting: a player could be connected
+     * to more than one device, and that could correspond to more than one connected
+     * session. Allow topic filtering on the receiving side (Mediator and browser)
+     * to filter out and display messages.
+     *
+     * @param message Message to send
+     */
+    void sendMessage(Message message);
+}
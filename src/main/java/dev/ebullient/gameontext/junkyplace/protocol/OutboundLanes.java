@@ -0,0 +1,245 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders outbound messages for each session by priority, so moving between
+ * rooms stays responsive when a room is busy with chat.
+ *
+ * <p>
+ * Each session has one send in progress at a time. Messages sent while one is
+ * in progress wait in one of three lanes: {@link Lane#CONTROL} (acknowledgement,
+ * exits, location), ahead of {@link Lane#EVENT}, ahead of {@link Lane#CHAT}.
+ * Within a lane, messages keep their order. To keep lower lanes from starving,
+ * once {@code maxBurst} messages in a row have been taken ahead of a waiting
+ * lower lane, the message that has waited longest in a lower lane goes next.
+ * <p>
+ * If a session has {@code maxQueued} messages waiting, the oldest message in
+ * the lowest lane is dropped to make room (control messages are never dropped).
+ * <p>
+ * Counts by lane (waiting, sent, time spent waiting, dropped) are shared by
+ * all sessions, for metrics.
+ */
+public class OutboundLanes {
+
+    /** Outbound priority, highest first */
+    public enum Lane {
+        CONTROL,
+        EVENT,
+        CHAT;
+
+        static final String CHAT_PAYLOAD = "{\"type\":\"chat\"";
+        static final String EVENT_PAYLOAD = "{\"type\":\"event\"";
+
+        /**
+         * @param message Outbound message
+         * @return the lane for the message
+         */
+        public static Lane of(Message message) {
+            if (message.getTarget() == Message.Target.player) {
+                if (message.payloadStartsWith(EVENT_PAYLOAD)) {
+                    return EVENT;
+                }
+                if (message.payloadStartsWith(CHAT_PAYLOAD)) {
+                    return CHAT;
+                }
+            }
+            return CONTROL;
+        }
+
+        /** @return name of the lane, for metric tags */
+        public String tag() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    static final Lane[] LANES = Lane.values();
+
+    final int maxBurst;
+    final int maxQueued;
+    final LongSupplier clock;
+
+    final AtomicInteger[] waiting = new AtomicInteger[LANES.length];
+    final LongAdder[] sent = new LongAdder[LANES.length];
+    final LongAdder[] waitNanos = new LongAdder[LANES.length];
+    final LongAdder[] dropped = new LongAdder[LANES.length];
+    final LongAdder relieved = new LongAdder();
+
+    /**
+     * @param maxBurst Messages taken ahead of a waiting lower lane before it gets a turn
+     * @param maxQueued Messages a session can have waiting before the oldest, least important is dropped
+     * @param clock Source of {@link System#nanoTime()} (may be coarse)
+     */
+    public OutboundLanes(int maxBurst, int maxQueued, LongSupplier clock) {
+        this.maxBurst = Math.max(1, maxBurst);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.clock = clock;
+        for (int i = 0; i < LANES.length; i++) {
+            waiting[i] = new AtomicInteger();
+            sent[i] = new LongAdder();
+            waitNanos[i] = new LongAdder();
+            dropped[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return a new queue for a session
+     */
+    public Queue newQueue() {
+        return new Queue();
+    }
+
+    /** @return messages waiting in the lane, across all sessions */
+    public int getWaiting(Lane lane) {
+        return waiting[lane.ordinal()].get();
+    }
+
+    /** @return messages sent from the lane */
+    public long getSent(Lane lane) {
+        return sent[lane.ordinal()].sum();
+    }
+
+    /** @return total time messages sent from the lane spent waiting, in nanoseconds */
+    public long getWaitNanos(Lane lane) {
+        return waitNanos[lane.ordinal()].sum();
+    }
+
+    /** @return messages dropped from the lane because a session had too many waiting */
+    public long getDropped(Lane lane) {
+        return dropped[lane.ordinal()].sum();
+    }
+
+    /** @return number of times a lower lane was given a turn ahead of a higher one */
+    public long getRelieved() {
+        return relieved.sum();
+    }
+
+    /** A message waiting to be sent */
+    static class Pending {
+        final Message message;
+        final Lane lane;
+        final long enqueuedAt;
+
+        Pending(Message message, Lane lane, long enqueuedAt) {
+            this.message = message;
+            this.lane = lane;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /** Outbound messages for one session */
+    public class Queue {
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<Pending>[] lanes = new ArrayDeque[LANES.length];
+        int size;
+        int burst;
+        boolean sending;
+
+        Queue() {
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new ArrayDeque<>();
+            }
+        }
+
+        /**
+         * Queue a message for the session.
+         *
+         * @param message Message to send
+         * @return the message, if it should be sent now (nothing else is being sent), or null
+         *         if it will be returned by {@link #next()} once the sends ahead of it are done
+         */
+        public synchronized Message offer(Message message) {
+            Lane lane = Lane.of(message);
+            if (!sending) {
+                sending = true;
+                sent[lane.ordinal()].increment();
+                return message;
+            }
+            if (size >= maxQueued && !makeRoom(lane)) {
+                dropped[lane.ordinal()].increment();
+                return null;
+            }
+            lanes[lane.ordinal()].add(new Pending(message, lane, clock.getAsLong()));
+            waiting[lane.ordinal()].incrementAndGet();
+            size++;
+            return null;
+        }
+
+        /**
+         * The send in progress has completed.
+         *
+         * @return the next message to send, or null if there is nothing waiting
+         */
+        public synchronized Message next() {
+            int highest = -1;
+            int oldestLower = -1;
+            for (int i = 0; i < lanes.length; i++) {
+                Pending head = lanes[i].peek();
+                if (head == null) {
+                    continue;
+                }
+                if (highest < 0) {
+                    highest = i;
+                } else if (oldestLower < 0 || head.enqueuedAt < lanes[oldestLower].peek().enqueuedAt) {
+                    oldestLower = i;
+                }
+            }
+            if (highest < 0) {
+                sending = false;
+                burst = 0;
+                return null;
+            }
+
+            int take = highest;
+            if (oldestLower >= 0) {
+                if (++burst > maxBurst) {
+                    // starvation protection: give the lower lane a turn
+                    take = oldestLower;
+                    burst = 0;
+                    relieved.increment();
+                }
+            } else {
+                burst = 0;
+            }
+
+            Pending p = lanes[take].poll();
+            size--;
+            waiting[take].decrementAndGet();
+            sent[take].increment();
+            waitNanos[take].add(Math.max(0, clock.getAsLong() - p.enqueuedAt));
+            return p.message;
+        }
+
+        /**
+         * The session is closed, or a send failed to start: forget anything waiting.
+         * Nothing is being sent afterwards, so the next message offered is sent right away.
+         */
+        public synchronized void clear() {
+            for (int i = 0; i < lanes.length; i++) {
+                waiting[i].addAndGet(-lanes[i].size());
+                lanes[i].clear();
+            }
+            size = 0;
+            sending = false;
+            burst = 0;
+        }
+
+        /** Drop the oldest message in the lowest lane that isn't more important than the new one */
+        private boolean makeRoom(Lane incoming) {
+            for (int i = lanes.length - 1; i >= incoming.ordinal() && i > Lane.CONTROL.ordinal(); i--) {
+                if (lanes[i].poll() != null) {
+                    size--;
+                    waiting[i].decrementAndGet();
+                    dropped[i].increment();
+                    return true;
+                }
+            }
+            // control messages are queued anyway
+            return incoming == Lane.CONTROL;
+        }
+    }
+}
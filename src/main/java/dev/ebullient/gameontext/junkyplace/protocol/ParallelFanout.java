@@ -0,0 +1,82 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Visits every session in a {@link SessionRegistry}, splitting large
+ * broadcasts across a dedicated fork-join pool.
+ *
+ * <p>
+ * Broadcasts to fewer sessions than the threshold stay on the calling thread:
+ * handing off small amounts of work costs more than it saves. Larger broadcasts
+ * are split by shard, and the calling thread waits until every session has been
+ * visited. Waiting preserves ordering: a broadcast is always fully dispatched
+ * before the next one from the same thread starts, and each session (which
+ * lives in exactly one shard) is only ever visited by one thread per broadcast.
+ */
+public class ParallelFanout implements Closeable {
+
+    final ForkJoinPool pool;
+    final int threshold;
+
+    /**
+     * @param parallelism Number of fan-out threads (0 for one per processor)
+     * @param threshold Broadcasts to at least this many sessions are split up
+     */
+    public ParallelFanout(int parallelism, int threshold) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                p -> {
+                    ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    t.setName("junkyplace-fanout-" + t.getPoolIndex());
+                    return t;
+                }, null, false);
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param registry Sessions to visit
+     * @param action Action (usually a send) to perform for each session
+     */
+    public <V> void forEach(SessionRegistry<?, V> registry, Consumer<V> action) {
+        if (registry.size() < threshold || registry.shardCount() == 1) {
+            registry.forEach(action);
+        } else {
+            pool.invoke(new ShardRange<>(registry, action, 0, registry.shardCount()));
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    @SuppressWarnings("serial")
+    static class ShardRange<V> extends RecursiveAction {
+        final SessionRegistry<?, V> registry;
+        final Consumer<V> action;
+        final int from;
+        final int to;
+
+        ShardRange(SessionRegistry<?, V> registry, Consumer<V> action, int from, int to) {
+            this.registry = registry;
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                registry.forEach(from, action);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ShardRange<>(registry, action, from, mid),
+                        new ShardRange<>(registry, action, mid, to));
+            }
+        }
+    }
+}
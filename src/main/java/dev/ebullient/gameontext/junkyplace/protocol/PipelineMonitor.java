@@ -0,0 +1,146 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks how much work is moving through an endpoint: handlers running,
+ * asynchronous sends waiting to complete, and how many of those sends fail.
+ *
+ * <p>
+ * Each thread that handles messages gets its own {@link Handler}, which records
+ * when the current message started (or zero when the thread is idle). Marking a
+ * handler as started or done is a single volatile write on an object no other
+ * thread writes to, so tracking doesn't add contention to the message path.
+ * Checks walk the handlers to find one that has been busy for too long.
+ */
+public class PipelineMonitor {
+    /** How often {@link #awaitIdle} checks for work */
+    static final long IDLE_POLL_MILLIS = 5;
+
+    final LongSupplier clock;
+    final Queue<Handler> handlers = new ConcurrentLinkedQueue<>();
+    final ThreadLocal<Handler> current = ThreadLocal.withInitial(() -> {
+        Handler handler = new Handler();
+        handlers.add(handler);
+        return handler;
+    });
+
+    final AtomicInteger pendingSends = new AtomicInteger();
+    final LongAdder sends = new LongAdder();
+    final LongAdder failures = new LongAdder();
+
+    /**
+     * @param clock Source of {@link System#nanoTime()} (may be coarse)
+     */
+    public PipelineMonitor(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /** @return current time from the monitor's clock */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * The calling thread has started to handle a message.
+     *
+     * @return handler to mark as done once the message has been handled
+     */
+    public Handler handlerStarted() {
+        Handler handler = current.get();
+        handler.startedAt = clock.getAsLong();
+        return handler;
+    }
+
+    /** An asynchronous send has been started */
+    public void sendStarted() {
+        pendingSends.incrementAndGet();
+    }
+
+    /**
+     * An asynchronous send has completed
+     *
+     * @param failed true if the send failed
+     */
+    public void sendCompleted(boolean failed) {
+        pendingSends.decrementAndGet();
+        sends.increment();
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    /** @return number of threads currently handling a message */
+    public int getHandlersInFlight() {
+        int busy = 0;
+        for (Handler h : handlers) {
+            if (h.startedAt != 0) {
+                busy++;
+            }
+        }
+        return busy;
+    }
+
+    /** @return how long the longest-running handler has been busy, in nanoseconds (0 if none are) */
+    public long getLongestHandlerTime() {
+        long now = clock.getAsLong();
+        long longest = 0;
+        for (Handler h : handlers) {
+            long started = h.startedAt;
+            if (started != 0) {
+                longest = Math.max(longest, now - started);
+            }
+        }
+        return longest;
+    }
+
+    /** @return number of asynchronous sends that have not completed */
+    public int getPendingSends() {
+        return pendingSends.get();
+    }
+
+    /** @return number of asynchronous sends that have completed */
+    public long getSends() {
+        return sends.sum();
+    }
+
+    /** @return number of asynchronous sends that have failed */
+    public long getSendFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Wait for running handlers to finish and sends in progress to complete
+     * (e.g. before closing sessions on shutdown).
+     *
+     * @param timeout Longest to wait
+     * @param waiting Messages not yet handled or sent (each will become a handler or send)
+     * @return true if everything finished, false if the timeout passed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(Duration timeout, LongSupplier waiting) throws InterruptedException {
+        long deadline = clock.getAsLong() + timeout.toNanos();
+        while (getHandlersInFlight() > 0 || pendingSends.get() > 0 || waiting.getAsLong() > 0) {
+            if (clock.getAsLong() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(IDLE_POLL_MILLIS);
+        }
+        return true;
+    }
+
+    /** Work done by one thread */
+    public static class Handler {
+        volatile long startedAt;
+
+        /** The message has been handled */
+        public void done() {
+            startedAt = 0;
+        }
+    }
+}
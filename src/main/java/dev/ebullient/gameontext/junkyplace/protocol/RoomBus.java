@@ -0,0 +1,40 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries encoded broadcast frames between replicas of the room, so players
+ * connected to one replica see messages sent from another.
+ *
+ * <p>
+ * Implementations must deliver batches from a given node in the order they were
+ * published (later batches may be delivered more than once: duplicates are
+ * dropped by {@link ClusterFanout}).
+ * <p>
+ * The default implementation is {@link LoopbackRoomBus}: provide another
+ * {@code RoomBus} bean to connect replicas over the network.
+ */
+public interface RoomBus {
+
+    /**
+     * @return id of this node: unique within the cluster
+     */
+    String nodeId();
+
+    /**
+     * @return true if there are other nodes to send frames to
+     */
+    boolean hasPeers();
+
+    /**
+     * Send a batch of frames to all other nodes
+     *
+     * @param batch Frames to send
+     */
+    void publish(FrameBatch batch);
+
+    /**
+     * @param receiver Called with each batch published by other nodes
+     */
+    void subscribe(Consumer<FrameBatch> receiver);
+}
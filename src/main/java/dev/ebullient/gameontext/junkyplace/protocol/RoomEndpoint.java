@@ -2,21 +2,44 @@ package dev.ebullient.gameontext.junkyplace.protocol;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
 import javax.websocket.CloseReason;
+import javax.websocket.DecodeException;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
-import javax.websocket.RemoteEndpoint.Basic;
+import javax.websocket.PongMessage;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
 import dev.ebullient.gameontext.junkyplace.Log;
 import dev.ebullient.gameontext.junkyplace.Room;
+import dev.ebullient.gameontext.junkyplace.TimerWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.runtime.ShutdownEvent;
 
 /**
  * This is the WebSocket endpoint for a room. Java EE WebSockets
@@ -26,25 +49,255 @@ import dev.ebullient.gameontext.junkyplace.Room;
  */
 @ServerEndpoint(value = "/junkyplace/room", decoders = MessageDecoder.class, encoders = MessageEncoder.class)
 @ApplicationScoped
-public class RoomEndpoint {
+public class RoomEndpoint implements MessageSink {
 
     Room roomImplementation;
 
-    RoomEndpoint(Room roomImplementation) {
+    static final ByteBuffer PING = ByteBuffer.allocate(0);
+    static final CloseReason IDLE = new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, "Connection idle");
+    static final CloseReason GOING_AWAY = new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "Room is restarting");
+    static final CloseReason DRAINING = new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Room is restarting");
+
+    /** Sessions connected to this node, and when we last heard from them */
+    final SessionRegistry<Session, SessionActivity> sessions;
+
+    /** Large broadcasts are split across a fan-out pool */
+    final ParallelFanout parallel;
+
+    /**
+     * When enabled, broadcasts with text for specific players are split: those players
+     * get a frame with only their text, everyone else gets only the general text.
+     */
+    final boolean splitVariants;
+
+    /**
+     * Player (userId) to the sessions they joined the room on: messages for one
+     * player are only sent to their sessions.
+     */
+    final Map<String, Set<SessionActivity>> players = new ConcurrentHashMap<>();
+    final Counter routed;
+
+    /** Broadcasts to and from other replicas of this room */
+    final ClusterFanout fanout;
+    final Duration flushInterval;
+    private ScheduledExecutorService flusher;
+
+    /** Heartbeats: ping quiet sessions, close idle ones */
+    final TimerWheel timers;
+    final Duration heartbeatInterval;
+    final long idleTimeout;
+    final Counter pings;
+    final Counter reaped;
+
+    /** Optional hand-off from connection threads to room threads (null: handle inline) */
+    final InboundRing<Session> inbound;
+
+    /** Handlers running and sends in progress, for health checks */
+    final PipelineMonitor monitor;
+    final Counter failedSends;
+
+    /** Optional capture of inbound frames and room output, for replay (null: not capturing) */
+    final TrafficCapture capture;
+
+    /** Outbound messages for each session are sent one at a time, most important first */
+    final OutboundLanes lanes;
+
+    /** The slowest sends are recorded with the slowest messages handled (see {@link Room#getSlowLog()}) */
+    private SlowLog slowLog;
+
+    /** On shutdown, stop taking new sessions, and give what is on its way this long to be sent */
+    final Duration drainTimeout;
+    private volatile boolean draining;
+    private volatile long drainNanos;
+
+    RoomEndpoint(Room roomImplementation, RoomBus bus, MeterRegistry registry,
+            @ConfigProperty(name = "junkyplace.cluster.max-batch", defaultValue = "256") int maxBatch,
+            @ConfigProperty(name = "junkyplace.cluster.flush-interval", defaultValue = "5ms") Duration flushInterval,
+            @ConfigProperty(name = "junkyplace.session.heartbeat-interval", defaultValue = "30s") Duration heartbeatInterval,
+            @ConfigProperty(name = "junkyplace.session.idle-timeout", defaultValue = "90s") Duration idleTimeout,
+            @ConfigProperty(name = "junkyplace.session.shards", defaultValue = "16") int shards,
+            @ConfigProperty(name = "junkyplace.fanout.parallelism", defaultValue = "0") int parallelism,
+            @ConfigProperty(name = "junkyplace.fanout.threshold", defaultValue = "512") int threshold,
+            @ConfigProperty(name = "junkyplace.broadcast.split-variants", defaultValue = "false") boolean splitVariants,
+            @ConfigProperty(name = "junkyplace.inbound.ring-size", defaultValue = "0") int ringSize,
+            @ConfigProperty(name = "junkyplace.inbound.consumers", defaultValue = "1") int consumers,
+            @ConfigProperty(name = "junkyplace.inbound.wait-strategy", defaultValue = "PARK")
+                    InboundRing.WaitStrategy waitStrategy,
+            @ConfigProperty(name = "junkyplace.capture.file") Optional<String> captureFile,
+            @ConfigProperty(name = "junkyplace.outbound.max-burst", defaultValue = "8") int maxBurst,
+            @ConfigProperty(name = "junkyplace.outbound.max-queued", defaultValue = "1024") int maxQueued,
+            @ConfigProperty(name = "junkyplace.shutdown.drain-timeout", defaultValue = "5s") Duration drainTimeout) {
         this.roomImplementation = roomImplementation;
+        this.sessions = new SessionRegistry<>(shards);
+        this.parallel = new ParallelFanout(parallelism, threshold);
+        this.splitVariants = splitVariants;
+        this.fanout = new ClusterFanout(bus, maxBatch, this::sendFrameToLocalSessions);
+        this.flushInterval = flushInterval;
+
+        this.timers = new TimerWheel("junkyplace-session-timers", Duration.ofMillis(100), 512);
+        this.heartbeatInterval = heartbeatInterval;
+        this.idleTimeout = idleTimeout.toNanos();
+        this.pings = registry.counter("junkyplace.sessions.pings");
+        this.reaped = registry.counter("junkyplace.sessions.reaped");
+        registry.gauge("junkyplace.sessions.open", sessions, SessionRegistry::size);
+
+        this.monitor = new PipelineMonitor(timers::now);
+        registry.gauge("junkyplace.handlers.in-flight", monitor, PipelineMonitor::getHandlersInFlight);
+        registry.gauge("junkyplace.sends.pending", monitor, PipelineMonitor::getPendingSends);
+
+        this.inbound = ringSize > 0
+                ? new InboundRing<>("junkyplace-inbound", ringSize, consumers, waitStrategy, this::handleMessage)
+                : null;
+        registry.gauge("junkyplace.inbound.backlog", this, RoomEndpoint::getInboundBacklog);
+        this.failedSends = registry.counter("junkyplace.sends.failed");
+        this.routed = registry.counter("junkyplace.sends.routed");
+        this.capture = captureFile.map(this::startCapture).orElse(null);
+
+        this.lanes = new OutboundLanes(maxBurst, maxQueued, timers::now);
+        for (OutboundLanes.Lane lane : OutboundLanes.Lane.values()) {
+            Tags tags = Tags.of("lane", lane.tag());
+            registry.gauge("junkyplace.outbound.waiting", tags, lanes, l -> l.getWaiting(lane));
+            registry.gauge("junkyplace.outbound.sent", tags, lanes, l -> l.getSent(lane));
+            registry.gauge("junkyplace.outbound.wait", tags, lanes, l -> l.getWaitNanos(lane) / 1e9);
+            registry.gauge("junkyplace.outbound.dropped", tags, lanes, l -> l.getDropped(lane));
+        }
+        registry.gauge("junkyplace.outbound.relieved", lanes, OutboundLanes::getRelieved);
+
+        this.drainTimeout = drainTimeout;
+        registry.gauge("junkyplace.drain.duration", this, e -> e.drainNanos / 1e9);
+    }
+
+    private TrafficCapture startCapture(String file) {
+        try {
+            TrafficCapture c = new TrafficCapture(Paths.get(file));
+            Log.log(Level.INFO, this, "Capturing room traffic to {0}", file);
+            return c;
+        } catch (IOException e) {
+            Log.log(Level.WARNING, this, "Unable to capture room traffic to " + file, e);
+            return null;
+        }
+    }
+
+    @PostConstruct
+    void postConstruct() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "junkyplace-cluster-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(fanout::flush, interval, interval, TimeUnit.NANOSECONDS);
+        // Every replica runs its own ambient events and loads its own definition: those aren't forwarded
+        roomImplementation.attach(this::sendMessageToLocalSessions);
+        slowLog = roomImplementation.getSlowLog();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        drain();
+    }
+
+    @PreDestroy
+    void preDestroy() {
+        drain();
+        if (inbound != null) {
+            inbound.close();
+        }
+        timers.close();
+        flusher.shutdown();
+        fanout.flush();
+        parallel.close();
+        tryToClose(capture);
+    }
+
+    /**
+     * Hand players off to another replica quickly and cleanly (e.g. during a rolling deploy).
+     * <p>
+     * New sessions are turned away, and messages already on their way (waiting in the
+     * inbound ring or in a session's outbound lanes, or being sent) are given up to
+     * {@code junkyplace.shutdown.drain-timeout} to be sent. Then every session is closed
+     * with {@link CloseReason.CloseCodes#GOING_AWAY}, which tells the mediator to reconnect
+     * the player elsewhere right away. Anything still waiting at that point isn't sent.
+     * Only the first call drains: later calls return straight away.
+     *
+     * @return how long draining took
+     */
+    public Duration drain() {
+        synchronized (this) {
+            if (draining) {
+                return Duration.ofNanos(drainNanos);
+            }
+            draining = true;
+        }
+        long start = System.nanoTime();
+        fanout.flush();
+
+        boolean flushed = false;
+        try {
+            flushed = monitor.awaitIdle(drainTimeout, () -> getInboundBacklog() + getOutboundWaiting());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long unsent = getOutboundWaiting();
+        int closed = sessions.size();
+        sessions.forEach(a -> tryToClose(a.session, GOING_AWAY));
+
+        drainNanos = System.nanoTime() - start;
+        Log.log(flushed ? Level.INFO : Level.WARNING, this,
+                "Room endpoint drained in {0} ms: {1} sessions closed, {2} messages not sent",
+                TimeUnit.NANOSECONDS.toMillis(drainNanos), closed, unsent);
+        return Duration.ofNanos(drainNanos);
+    }
+
+    /**
+     * @return true once the endpoint has started to drain (see {@link #drain()})
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    private long getOutboundWaiting() {
+        long n = 0;
+        for (OutboundLanes.Lane lane : OutboundLanes.Lane.values()) {
+            n += lanes.getWaiting(lane);
+        }
+        return n;
     }
 
     @OnOpen
     public void onOpen(Session session, EndpointConfig ec) {
+        if (draining) {
+            // Ask the mediator to try another replica
+            tryToClose(session, DRAINING);
+            return;
+        }
         Log.log(Level.FINE, this, "A new connection has been made to the room.");
+        SessionActivity activity = new SessionActivity(session, timers.now(), lanes.newQueue());
+        sessions.put(session, activity);
+        activity.heartbeat = timers.schedule(heartbeatInterval, () -> heartbeat(activity));
 
         // All we have to do in onOpen is send the acknowledgement
-        sendMessageToSession(session, Message.ACK_MSG);
+        send(activity, Message.ACK_MSG);
     }
 
     @OnClose
     public void onClose(Session session, CloseReason r) {
         Log.log(Level.FINE, this, "A connection to the room has been closed with reason " + r);
+        SessionActivity activity = sessions.remove(session);
+        if (activity != null) {
+            closed(activity);
+        }
+    }
+
+    /**
+     * The session is closed (whether we saw it close, or found it closed):
+     * forget what was waiting to be sent, and who was using it.
+     */
+    private void closed(SessionActivity activity) {
+        activity.outbound.clear();
+        if (activity.heartbeat != null) {
+            activity.heartbeat.cancel();
+        }
+        activity.userIds.forEach(userId -> removePlayer(userId, activity));
     }
 
     @OnError
@@ -60,6 +313,9 @@ public class RoomEndpoint {
 
     /**
      * The hook into the interesting room stuff.
+     * <p>
+     * If an inbound ring is configured ({@code junkyplace.inbound.ring-size}),
+     * the message is handed to a room thread, otherwise it is handled right here.
      *
      * @param session
      * @param message
@@ -67,42 +323,368 @@ public class RoomEndpoint {
      */
     @OnMessage
     public void receiveMessage(Session session, Message message) throws IOException {
-        roomImplementation.handleMessage(session, message, this);
+        touch(session);
+        if (capture != null) {
+            capture.inbound(session.getId(), message.encode());
+        }
+        if (inbound == null) {
+            handleMessage(session, message);
+        } else {
+            inbound.publish(session, message);
+        }
+    }
+
+    void handleMessage(Session session, Message message) {
+        FlightEvents.Receive event = new FlightEvents.Receive();
+        event.begin();
+        PipelineMonitor.Handler handler = monitor.handlerStarted();
+        try {
+            trackPlayer(session, message);
+            roomImplementation.handleMessage(message, this);
+        } finally {
+            handler.done();
+            event.end();
+            if (event.shouldCommit()) {
+                event.target = message.getTarget().name();
+                event.payloadSize = message.getPayloadSize();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Remember which sessions a player joined on, so messages meant only for them
+     * can be sent only to them. The parsed body is kept by the message, so
+     * the room doesn't parse it again.
+     */
+    private void trackPlayer(Session session, Message message) {
+        switch (message.getTarget()) {
+            case roomHello:
+            case roomJoin:
+                Message.MediatorRoomHello hello = message.getParsedBody();
+                addPlayer(hello.userId, sessions.get(session));
+                break;
+            case roomGoodbye:
+            case roomPart:
+                Message.MediatorRoomGoodbye goodbye = message.getParsedBody();
+                removePlayer(goodbye.userId, sessions.get(session));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addPlayer(String userId, SessionActivity activity) {
+        if (activity != null) {
+            activity.userIds.add(userId);
+            players.compute(userId, (k, carrying) -> {
+                Set<SessionActivity> result = carrying == null ? ConcurrentHashMap.newKeySet() : carrying;
+                result.add(activity);
+                return result;
+            });
+        }
+    }
+
+    private void removePlayer(String userId, SessionActivity activity) {
+        if (activity != null) {
+            activity.userIds.remove(userId);
+            players.computeIfPresent(userId, (k, carrying) -> {
+                carrying.remove(activity);
+                return carrying.isEmpty() ? null : carrying;
+            });
+        }
+    }
+
+    /**
+     * A reply to one of our pings: the connection is still alive.
+     *
+     * @param session
+     * @param message
+     */
+    @OnMessage
+    public void receivePong(Session session, PongMessage message) {
+        touch(session);
+    }
+
+    private void touch(Session session) {
+        SessionActivity activity = sessions.get(session);
+        if (activity != null) {
+            activity.lastActivity = timers.now();
+        }
     }
 
     /**
-     * Simple broadcast: loop over all mentioned sessions to send the message
+     * Runs on the timer wheel once per heartbeat interval for each session.
+     * Close the session if we haven't heard from it within the idle timeout,
+     * otherwise ping it if it has been quiet since the last heartbeat.
+     */
+    void heartbeat(SessionActivity activity) {
+        Session session = activity.session;
+        if (!session.isOpen()) {
+            if (sessions.remove(session) != null) {
+                closed(activity);
+            }
+            return;
+        }
+
+        long quiet = timers.now() - activity.lastActivity;
+        if (quiet >= idleTimeout) {
+            Log.log(Level.FINE, this, "Closing idle connection {0}", session.getId());
+            reaped.increment();
+            tryToClose(session, IDLE);
+            return;
+        }
+        if (quiet >= heartbeatInterval.toNanos()) {
+            try {
+                session.getAsyncRemote().sendPing(PING.duplicate());
+                pings.increment();
+            } catch (IOException | RuntimeException e) {
+                Log.log(Level.FINE, this, "Unable to ping connection " + session.getId(), e);
+            }
+        }
+        activity.heartbeat = timers.schedule(heartbeatInterval, () -> heartbeat(activity));
+    }
+
+    /**
+     * Simple broadcast: loop over all sessions connected to this node to send the message
      * <p>
      * We are effectively always broadcasting: a player could be connected
      * to more than one device, and that could correspond to more than one connected
      * session. Allow topic filtering on the receiving side (Mediator and browser)
      * to filter out and display messages.
+     * <p>
+     * Large broadcasts are split across threads (see {@link ParallelFanout}).
+     * The message is also forwarded to other replicas of the room
+     * (see {@link ClusterFanout}).
+     * <p>
+     * A message for one player (e.g. a whisper, or a reply to a command) is only
+     * sent to the sessions that player joined on, if we know them: it isn't
+     * forwarded to other replicas.
+     * If variants are split and we know where every player named in a broadcast
+     * is, each session gets only the text meant for it (see {@link EventWriter.Variants#select}).
+     * A session used by more than one player gets the whole message.
+     * Other replicas get the whole message.
      *
-     * @param session Target session (used to find all related sessions)
      * @param message Message to send
-     * @see #sendRemoteTextMessage(Session, Message)
+     * @see #send(SessionActivity, Message)
      */
-    public void sendMessage(Session session, Message message) {
-        for (Session s : session.getOpenSessions()) {
-            sendMessageToSession(s, message);
+    @Override
+    public void sendMessage(Message message) {
+        FlightEvents.Broadcast event = new FlightEvents.Broadcast();
+        event.begin();
+
+        int recipients = sendToPlayer(message);
+        if (recipients < 0) {
+            recipients = sessions.size();
+            EventWriter.Variants variants = splitVariants ? message.getVariants() : null;
+            if (variants == null || !knowsPlayers(variants)) {
+                parallel.forEach(sessions, a -> send(a, message));
+            } else {
+                parallel.forEach(sessions, a -> send(a, variants.select(a.userIds, message)));
+            }
+            // The player isn't here: they may have joined on another replica
+            fanout.forward(message.encode());
+        }
+        if (capture != null) {
+            capture.outbound(Message.ALL, message.encode());
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.target = message.getTarget().name();
+            event.recipients = recipients;
+            event.frameSize = message.encode().length();
+            event.commit();
         }
     }
 
     /**
-     * Try sending the {@link Message} using
-     * {@link Session#getBasicRemote()}, {@link Basic#sendObject(Object)}.
+     * Send a message only to sessions connected to this replica.
      *
-     * @param session Session to send the message on
      * @param message Message to send
-     * @return true if send was successful, or false if it failed
      */
-    private void sendMessageToSession(Session session, Message message) {
-        if (session.isOpen()) {
+    void sendMessageToLocalSessions(Message message) {
+        if (sendToPlayer(message) < 0) {
+            parallel.forEach(sessions, a -> send(a, message));
+        }
+    }
+
+    /**
+     * If the message is for one player, and we know which sessions they
+     * joined on, send it only to those sessions.
+     *
+     * @param message Message to send
+     * @return number of sessions the message was sent to, or -1 if it should be broadcast
+     */
+    private int sendToPlayer(Message message) {
+        if (!isForOnePlayer(message)) {
+            return -1;
+        }
+        Set<SessionActivity> carrying = players.get(message.getTargetId());
+        if (carrying == null) {
+            return -1;
+        }
+        int n = 0;
+        for (SessionActivity a : carrying) {
+            send(a, message);
+            n++;
+        }
+        routed.increment();
+        return n;
+    }
+
+    private static boolean isForOnePlayer(Message message) {
+        Message.Target target = message.getTarget();
+        return (target == Message.Target.player || target == Message.Target.playerLocation)
+                && !Message.ALL.equals(message.getTargetId());
+    }
+
+    /**
+     * @return true if we know the sessions of all the players with their own text
+     */
+    private boolean knowsPlayers(EventWriter.Variants variants) {
+        for (int i = 0; i < variants.size(); i++) {
+            if (!players.containsKey(variants.getUserId(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of messages waiting in the inbound ring (0 if there isn't one)
+     */
+    public long getInboundBacklog() {
+        return inbound == null ? 0 : inbound.backlog();
+    }
+
+    /**
+     * @return handlers running and sends in progress
+     * @see RoomReadinessCheck
+     * @see RoomLivenessCheck
+     */
+    public PipelineMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Send a frame broadcast by another replica to all sessions connected
+     * to this one. The frame is decoded (once) so it can take its place
+     * in each session's outbound lanes.
+     * <p>
+     * A frame for one player is only sent to that player's sessions: if the
+     * player didn't join on this replica, it is dropped rather than broadcast.
+     *
+     * @param frame Encoded message
+     */
+    void sendFrameToLocalSessions(String frame) {
+        Message message;
+        try {
+            message = new Message(frame);
+        } catch (DecodeException e) {
+            Log.log(Level.WARNING, this, "Unable to decode frame from another replica: " + frame, e);
+            return;
+        }
+        if (sendToPlayer(message) < 0 && !isForOnePlayer(message)) {
+            parallel.forEach(sessions, a -> send(a, message));
+        }
+    }
+
+    /**
+     * Send a message to a session, or queue it behind the send in progress
+     * (see {@link OutboundLanes}).
+     *
+     * @param activity Session to send the message on
+     * @param message Message to send
+     */
+    private void send(SessionActivity activity, Message message) {
+        if (activity.session.isOpen()) {
+            Message next = activity.outbound.offer(message);
+            if (next != null) {
+                startSend(activity, next);
+            }
+        }
+    }
+
+    /**
+     * Send the {@link Message} using {@link Session#getAsyncRemote()}. When the
+     * send completes, start sending the next message waiting for the session.
+     * If the send can't be started, it is counted as failed, and anything waiting is dropped.
+     * <p>
+     * A send may complete before {@code sendObject} returns (e.g. when the
+     * socket can take the whole frame at once). The next message is then sent
+     * from this loop rather than from the completion callback, so a long queue
+     * doesn't turn into deep recursion.
+     *
+     * @param activity Session to send the message on
+     * @param message Message to send (or null if there is nothing to send)
+     */
+    private void startSend(SessionActivity activity, Message message) {
+        while (message != null && trySend(activity, message)) {
+            message = activity.outbound.next();
+        }
+    }
+
+    /**
+     * @param activity Session to send the message on
+     * @param message Message to send
+     * @return true if the send completed before this returned: the caller should send the next message
+     */
+    private boolean trySend(SessionActivity activity, Message message) {
+        Session session = activity.session;
+        if (!session.isOpen()) {
+            activity.outbound.clear();
+            return false;
+        }
+        monitor.sendStarted();
+        FlightEvents.Send event = FlightEvents.Send.start();
+        long started = slowLog.now();
+        // whichever of the callback and this method gets here second carries on with the next message
+        AtomicBoolean handoff = new AtomicBoolean();
+        try {
             session.getAsyncRemote().sendObject(message, result -> {
-                if (result.getException() != null) {
-                    Log.log(Level.FINE, this, "Unexpected condition writing message", result.getException());
+                sendCompleted(result);
+                long elapsed = slowLog.now() - started;
+                if (slowLog.isSlow(elapsed)) {
+                    slowLog.record(SlowLog.Kind.SEND, message.getTarget().name(), OutboundLanes.Lane.of(message).tag(),
+                            message.getTargetId(), elapsed, message.getPayloadSize(), 1);
+                }
+                if (event != null) {
+                    event.complete(message.getTarget().name(), message.encode().length(), result.getException() != null);
+                }
+                if (!handoff.compareAndSet(false, true)) {
+                    startSend(activity, activity.outbound.next());
                 }
             });
+        } catch (RuntimeException e) {
+            // e.g. the session closed after we checked: the callback will never run
+            sendCompleted(new SendResult(e));
+            activity.outbound.clear();
+            return false;
+        }
+        return !handoff.compareAndSet(false, true);
+    }
+
+    private void sendCompleted(SendResult result) {
+        monitor.sendCompleted(result.getException() != null);
+        if (result.getException() != null) {
+            failedSends.increment();
+            Log.log(Level.FINE, this, "Unexpected condition writing message", result.getException());
+        }
+    }
+
+    /** Tracks when we last heard from a session (and who is using it), and what is waiting to be sent */
+    static class SessionActivity {
+        final Session session;
+        final OutboundLanes.Queue outbound;
+        final Set<String> userIds = ConcurrentHashMap.newKeySet();
+        volatile long lastActivity;
+        volatile TimerWheel.Timeout heartbeat;
+
+        SessionActivity(Session session, long now, OutboundLanes.Queue outbound) {
+            this.session = session;
+            this.outbound = outbound;
+            this.lastActivity = now;
         }
     }
 
@@ -0,0 +1,39 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Liveness;
+
+/**
+ * Reports the room as not alive when a thread has been handling the same
+ * message for too long: handlers should take microseconds, so one that is
+ * still running after the timeout is stuck (deadlocked, or waiting on something
+ * that will never happen), and restarting is the way out.
+ */
+@Liveness
+@ApplicationScoped
+public class RoomLivenessCheck implements HealthCheck {
+
+    @ConfigProperty(name = "junkyplace.health.stuck-handler-timeout", defaultValue = "30s")
+    Duration stuckHandlerTimeout;
+
+    @Inject
+    RoomEndpoint endpoint;
+
+    @Override
+    public HealthCheckResponse call() {
+        long longest = endpoint.getMonitor().getLongestHandlerTime();
+
+        return HealthCheckResponse.named("junkyplace-handlers")
+                .state(longest < stuckHandlerTimeout.toNanos())
+                .withData("longestHandlerMs", TimeUnit.NANOSECONDS.toMillis(longest))
+                .build();
+    }
+}
@@ -0,0 +1,117 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.time.Duration;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Reports the room as not ready when {@link RoomEndpoint} is saturated: too many
+ * threads busy handling messages, too many messages waiting in the inbound ring,
+ * too many sends waiting to complete, or too many sends failing. An orchestrator will then stop routing new players here
+ * until the backlog clears. The room is also not ready once the endpoint is draining (see {@link RoomEndpoint#drain()}).
+ */
+@Readiness
+@ApplicationScoped
+public class RoomReadinessCheck implements HealthCheck {
+    /** Don't judge the failure rate on only a handful of sends */
+    static final long MIN_SENDS = 20;
+
+    @ConfigProperty(name = "junkyplace.health.max-handlers-in-flight", defaultValue = "64")
+    int maxHandlersInFlight;
+
+    @ConfigProperty(name = "junkyplace.health.max-inbound-backlog", defaultValue = "4096")
+    long maxInboundBacklog;
+
+    @ConfigProperty(name = "junkyplace.health.max-pending-sends", defaultValue = "10000")
+    int maxPendingSends;
+
+    @ConfigProperty(name = "junkyplace.health.max-send-failure-rate", defaultValue = "0.5")
+    double maxSendFailureRate;
+
+    @ConfigProperty(name = "junkyplace.health.failure-window", defaultValue = "30s")
+    Duration failureWindow;
+
+    @Inject
+    RoomEndpoint endpoint;
+
+    private FailureRate failureRate;
+
+    @Override
+    public HealthCheckResponse call() {
+        PipelineMonitor monitor = endpoint.getMonitor();
+        int handlers = monitor.getHandlersInFlight();
+        long inboundBacklog = endpoint.getInboundBacklog();
+        int pendingSends = monitor.getPendingSends();
+        double rate = sendFailureRate(monitor);
+
+        return HealthCheckResponse.named("junkyplace-pipeline")
+                .state(!endpoint.isDraining()
+                        && handlers <= maxHandlersInFlight
+                        && inboundBacklog <= maxInboundBacklog
+                        && pendingSends <= maxPendingSends
+                        && rate <= maxSendFailureRate)
+                .withData("draining", endpoint.isDraining())
+                .withData("handlersInFlight", handlers)
+                .withData("inboundBacklog", inboundBacklog)
+                .withData("pendingSends", pendingSends)
+                .withData("sendFailureRate", String.format("%.3f", rate))
+                .build();
+    }
+
+    /**
+     * @return fraction of sends that failed in the most recent complete window
+     */
+    synchronized double sendFailureRate(PipelineMonitor monitor) {
+        if (failureRate == null) {
+            failureRate = new FailureRate(failureWindow, MIN_SENDS);
+        }
+        return failureRate.update(monitor.now(), monitor.getSends(), monitor.getSendFailures());
+    }
+
+    /**
+     * Fraction of sends that failed, over fixed windows. A window with too few sends
+     * to judge (e.g. because traffic moved elsewhere while the room wasn't ready)
+     * counts as no failures, so the room can become ready again.
+     */
+    public static class FailureRate {
+        final long window;
+        final long minSends;
+
+        private long windowStart;
+        private long windowSends;
+        private long windowFailures;
+        private double rate;
+
+        /**
+         * @param window Length of each window
+         * @param minSends Fewest sends in a window to judge the failure rate on
+         */
+        public FailureRate(Duration window, long minSends) {
+            this.window = window.toNanos();
+            this.minSends = minSends;
+        }
+
+        /**
+         * @param now Current time (see {@link PipelineMonitor#now()})
+         * @param sends Sends completed so far
+         * @param failures Sends failed so far
+         * @return fraction of sends that failed in the most recent complete window
+         */
+        public double update(long now, long sends, long failures) {
+            if (now - windowStart >= window) {
+                long n = sends - windowSends;
+                rate = n >= minSends ? (double) (failures - windowFailures) / n : 0;
+                windowSends = sends;
+                windowFailures = failures;
+                windowStart = now;
+            }
+            return rate;
+        }
+    }
+}
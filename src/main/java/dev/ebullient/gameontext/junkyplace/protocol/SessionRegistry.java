@@ -0,0 +1,145 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Registry of connected sessions, split into shards.
+ *
+ * <p>
+ * Each shard has its own lock (striped locking), so connections opening and
+ * closing don't contend with each other. Each shard also keeps an array of its
+ * values that is replaced (copy-on-write) whenever the shard changes:
+ * broadcasts iterate over these arrays without locking or copying anything,
+ * and each shard can be traversed independently (in parallel).
+ * <p>
+ * Connections open and close far less often than messages are broadcast,
+ * and copying only one shard keeps the cost of a change small.
+ *
+ * @param <K> Key (the session)
+ * @param <V> Value held for the session
+ */
+public class SessionRegistry<K, V> {
+    static final Object[] EMPTY = new Object[0];
+
+    final Shard<K, V>[] shards;
+    final int mask;
+
+    /**
+     * @param shards Number of shards (rounded up to a power of two)
+     */
+    @SuppressWarnings("unchecked")
+    public SessionRegistry(int shards) {
+        int size = Integer.highestOneBit(Math.max(1, shards) * 2 - 1);
+        this.shards = new Shard[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.shards[i] = new Shard<>();
+        }
+    }
+
+    public V get(K key) {
+        return shard(key).index.get(key);
+    }
+
+    public void put(K key, V value) {
+        shard(key).put(key, value);
+    }
+
+    public V remove(K key) {
+        return shard(key).remove(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard<K, V> s : shards) {
+            size += s.values.length;
+        }
+        return size;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param shard Shard number
+     * @return number of values in the shard
+     */
+    public int size(int shard) {
+        return shards[shard].values.length;
+    }
+
+    /**
+     * Visit every value in the registry
+     *
+     * @param action Action to perform for each value
+     */
+    public void forEach(Consumer<V> action) {
+        for (int i = 0; i < shards.length; i++) {
+            forEach(i, action);
+        }
+    }
+
+    /**
+     * Visit every value in one shard. Values added or removed while this
+     * is running are not seen: iteration is over a stable snapshot.
+     *
+     * @param shard Shard number
+     * @param action Action to perform for each value
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(int shard, Consumer<V> action) {
+        for (Object v : shards[shard].values) {
+            action.accept((V) v);
+        }
+    }
+
+    private Shard<K, V> shard(K key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    static class Shard<K, V> {
+        final Map<K, V> index = new ConcurrentHashMap<>();
+        volatile Object[] values = EMPTY;
+
+        synchronized void put(K key, V value) {
+            V previous = index.put(key, value);
+            Object[] current = values;
+            if (previous == null) {
+                Object[] next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = value;
+                values = next;
+            } else {
+                Object[] next = current.clone();
+                next[indexOf(current, previous)] = value;
+                values = next;
+            }
+        }
+
+        synchronized V remove(K key) {
+            V previous = index.remove(key);
+            if (previous != null) {
+                Object[] current = values;
+                int i = indexOf(current, previous);
+                Object[] next = new Object[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                values = next;
+            }
+            return previous;
+        }
+
+        private static int indexOf(Object[] values, Object value) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == value) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Session registry shard is inconsistent");
+        }
+    }
+}
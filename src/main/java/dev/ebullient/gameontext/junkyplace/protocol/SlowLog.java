@@ -0,0 +1,280 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+/**
+ * The slowest messages handled and sent recently, so outliers can be chased
+ * in production without turning on debug logging.
+ *
+ * <p>
+ * The window (e.g. the last minute) is split into {@link #SLICES} slices.
+ * Each slice keeps the {@code size} slowest entries recorded during it, in a
+ * fixed array of slots, and the duration of the fastest of those (its floor).
+ * Recording something faster than a full slice's floor is a single volatile
+ * read: nothing is allocated, and nothing is written. Slower entries replace
+ * the fastest one in the slice with a compare-and-set, so recording never
+ * takes a lock. A slice is replaced as a whole once the clock moves past it.
+ * <p>
+ * {@link #getSlowest()} merges the slices that are still in the window.
+ * Entries recorded while a slice is being replaced may be lost: this is
+ * a diagnostic aid, not an audit log.
+ */
+public class SlowLog {
+    static final int SLICES = 4;
+
+    /** What was slow */
+    public enum Kind {
+        /** The room handling an inbound message */
+        HANDLE,
+        /** An asynchronous send to one session, from starting to completing */
+        SEND
+    }
+
+    final int size;
+    final long slice;
+    final LongSupplier clock;
+    final AtomicReferenceArray<Slice> slices = new AtomicReferenceArray<>(SLICES);
+    final LongAdder recorded = new LongAdder();
+
+    /**
+     * @param size Number of entries to keep for each slice of the window
+     * @param window How far back to look
+     * @param clock Source of {@link System#nanoTime()} (should be precise: it is used to time entries)
+     */
+    public SlowLog(int size, Duration window, LongSupplier clock) {
+        this.size = Math.max(1, size);
+        this.slice = Math.max(1, window.toNanos() / SLICES);
+        this.clock = clock;
+    }
+
+    /** @return current time from the log's clock */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * @param nanos Time taken
+     * @return true if an entry taking this long would be kept (check before
+     *         gathering the details for {@link #record})
+     */
+    public boolean isSlow(long nanos) {
+        long now = now();
+        Slice s = slices.get(index(now));
+        return s == null || s.start != start(now) || s.floor < nanos;
+    }
+
+    /**
+     * Record an entry if it is one of the slowest in the current slice.
+     *
+     * @param kind Handled or sent
+     * @param target Message target (e.g. room, player)
+     * @param verb For messages handled, the command, "chat", or target; for sends, the outbound lane
+     * @param userId Player the message is from or for (only a hash is kept)
+     * @param nanos Time taken
+     * @param payloadSize Size of the message payload
+     * @param recipients For messages handled, players in the room; for sends, sessions sent to
+     */
+    public void record(Kind kind, String target, String verb, String userId, long nanos, int payloadSize,
+            int recipients) {
+        long now = now();
+        Slice s = current(now);
+        if (s == null || s.floor >= nanos) {
+            return;
+        }
+        s.offer(new Entry(kind, target, verb, hash(userId), nanos, payloadSize, recipients, System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the slowest entries in the window, slowest first
+     */
+    public List<Entry> getSlowest() {
+        long now = now();
+        List<Entry> all = new ArrayList<>();
+        for (int i = 0; i < SLICES; i++) {
+            Slice s = slices.get(i);
+            if (s != null && now - s.start < slice * SLICES) {
+                s.collect(all);
+            }
+        }
+        all.sort(Comparator.comparingLong(Entry::getNanos).reversed());
+        return all.size() > size ? new ArrayList<>(all.subList(0, size)) : all;
+    }
+
+    /** @return number of entries kept (at least for a while) */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /** @return number of entries to keep for each slice of the window */
+    public int getSize() {
+        return size;
+    }
+
+    /** @return the window, in nanoseconds */
+    public long getWindowNanos() {
+        return slice * SLICES;
+    }
+
+    private long start(long now) {
+        return now - Math.floorMod(now, slice);
+    }
+
+    private int index(long now) {
+        return (int) Math.floorMod(Math.floorDiv(now, slice), (long) SLICES);
+    }
+
+    /** @return the slice for the current time, or null if the clock went backwards */
+    private Slice current(long now) {
+        long start = start(now);
+        int i = index(now);
+        Slice s = slices.get(i);
+        if (s == null || s.start < start) {
+            Slice fresh = new Slice(start);
+            s = slices.compareAndSet(i, s, fresh) ? fresh : slices.get(i);
+        }
+        return s.start == start ? s : null;
+    }
+
+    static String hash(String userId) {
+        return userId == null ? "" : Integer.toHexString(userId.hashCode());
+    }
+
+    /** Slowest entries recorded during one slice of the window */
+    class Slice {
+        final long start;
+        final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(size);
+
+        /** Fastest entry kept, once every slot is used (only increases) */
+        volatile long floor;
+
+        Slice(long start) {
+            this.start = start;
+        }
+
+        void offer(Entry entry) {
+            while (true) {
+                int fastest = -1;
+                Entry replaced = null;
+                for (int i = 0; i < size; i++) {
+                    Entry e = slots.get(i);
+                    if (e == null) {
+                        fastest = i;
+                        replaced = null;
+                        break;
+                    }
+                    if (replaced == null || e.nanos < replaced.nanos) {
+                        fastest = i;
+                        replaced = e;
+                    }
+                }
+                if (replaced != null && replaced.nanos >= entry.nanos) {
+                    return;
+                }
+                if (slots.compareAndSet(fastest, replaced, entry)) {
+                    recorded.increment();
+                    updateFloor();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Entries are only ever replaced by slower ones, so a floor computed from
+         * a scan is never above the real one, even if another thread has since moved on.
+         */
+        private void updateFloor() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                Entry e = slots.get(i);
+                if (e == null) {
+                    return;
+                }
+                min = Math.min(min, e.nanos);
+            }
+            if (min > floor) {
+                floor = min;
+            }
+        }
+
+        void collect(List<Entry> all) {
+            for (int i = 0; i < size; i++) {
+                Entry e = slots.get(i);
+                if (e != null) {
+                    all.add(e);
+                }
+            }
+        }
+    }
+
+    /** One slow message (serialized as JSON by the REST view, so registered for reflection) */
+    @RegisterForReflection
+    public static class Entry {
+        final Kind kind;
+        final String target;
+        final String verb;
+        final String user;
+        final long nanos;
+        final int payloadSize;
+        final int recipients;
+        final long recordedAt;
+
+        Entry(Kind kind, String target, String verb, String user, long nanos, int payloadSize, int recipients,
+                long recordedAt) {
+            this.kind = kind;
+            this.target = target;
+            this.verb = verb;
+            this.user = user;
+            this.nanos = nanos;
+            this.payloadSize = payloadSize;
+            this.recipients = recipients;
+            this.recordedAt = recordedAt;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getVerb() {
+            return verb;
+        }
+
+        /** @return hash of the player's userId */
+        public String getUser() {
+            return user;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getPayloadSize() {
+            return payloadSize;
+        }
+
+        public int getRecipients() {
+            return recipients;
+        }
+
+        /** @return when the entry was recorded, in milliseconds since the epoch */
+        public long getRecordedAt() {
+            return recordedAt;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + target + " " + verb + " " + nanos + "ns";
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Player-facing text with named placeholders, e.g. {@code "{username} is here"}.
+ *
+ * <p>
+ * The pattern is parsed once: it is split into literal segments (kept both as
+ * plain text and already escaped for JSON) and slots for the arguments.
+ * Rendering appends segments and escaped arguments straight into the JSON being
+ * written (see {@link EventWriter}), without parsing a format string or building
+ * intermediate strings.
+ * <p>
+ * Braces that don't name a parameter are left as they are.
+ */
+public class Template {
+
+    final String pattern;
+    final String[] literals;
+    final String[] escapedLiterals;
+    final int[] slots;
+
+    /**
+     * @param pattern Text with {@code {name}} placeholders
+     * @param parameters Parameter names, in the order arguments will be passed (at most two)
+     * @return compiled template
+     * @throws IllegalArgumentException if there are more than two parameters
+     */
+    public static Template compile(String pattern, String... parameters) {
+        if (parameters.length > 2) {
+            throw new IllegalArgumentException("A template takes at most two parameters: " + pattern);
+        }
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            int close = c == '{' ? pattern.indexOf('}', i) : -1;
+            int slot = close < 0 ? -1 : Arrays.asList(parameters).indexOf(pattern.substring(i + 1, close));
+            if (slot < 0) {
+                literal.append(c);
+                i++;
+            } else {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                slots.add(slot);
+                i = close + 1;
+            }
+        }
+        literals.add(literal.toString());
+
+        return new Template(pattern, literals.toArray(new String[0]),
+                slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    Template(String pattern, String[] literals, int[] slots) {
+        this.pattern = pattern;
+        this.literals = literals;
+        this.slots = slots;
+        this.escapedLiterals = new String[literals.length];
+        for (int i = 0; i < literals.length; i++) {
+            StringBuilder sb = new StringBuilder(literals[i].length());
+            escape(literals[i], sb);
+            escapedLiterals[i] = sb.toString();
+        }
+    }
+
+    /**
+     * Append the rendered text, escaped for use inside a JSON string
+     *
+     * @param out JSON being written
+     * @param a First argument
+     * @param b Second argument
+     */
+    public void render(StringBuilder out, String a, String b) {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(escapedLiterals[i]);
+            escape(slots[i] == 0 ? a : b, out);
+        }
+        out.append(escapedLiterals[slots.length]);
+    }
+
+    public void render(StringBuilder out, String a) {
+        render(out, a, null);
+    }
+
+    /**
+     * @return the rendered text (not escaped)
+     */
+    public String format(String a, String b) {
+        StringBuilder out = new StringBuilder(pattern.length() + 32);
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]).append(slots[i] == 0 ? a : b);
+        }
+        return out.append(literals[slots.length]).toString();
+    }
+
+    public String format(String a) {
+        return format(a, null);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    /**
+     * Append text to a JSON string value, escaping quotes, backslashes
+     * and control characters.
+     *
+     * @param text Text to append (null is written as "null")
+     * @param out JSON being written
+     */
+    public static void escape(CharSequence text, StringBuilder out) {
+        if (text == null) {
+            out.append("null");
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(text, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append(String.format("\\u%04x", (int) c));
+                    break;
+            }
+        }
+        out.append(text, start, text.length());
+    }
+}
@@ -0,0 +1,245 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import dev.ebullient.gameontext.junkyplace.Log;
+
+/**
+ * Append-only capture of the frames a room endpoint receives and sends,
+ * for replaying real traffic against a build (see
+ * {@code dev.ebullient.gameontext.junkyplace.TrafficReplay}).
+ *
+ * <p>
+ * Frames are queued by the caller and written behind by a single writer
+ * thread, in batches: queuing never blocks, and frames are dropped (and
+ * counted) if the writer falls behind. Nothing is flushed to disk
+ * explicitly: a capture is a diagnostic, not state.
+ * <p>
+ * The file starts with a magic number. Each record is
+ * {@code [length][direction][nanos][session][frame]}, where nanos is the time
+ * since the capture started, and session and frame are length-prefixed UTF-8.
+ * Reading stops at the first incomplete record.
+ */
+public class TrafficCapture implements Closeable {
+    static final int MAGIC = 0x4a504331; // JPC1
+
+    public static final byte INBOUND = 1;
+    public static final byte OUTBOUND = 2;
+
+    static final int QUEUE_CAPACITY = 65536;
+    static final int MAX_BATCH = 4096;
+
+    final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    final AtomicLong dropped = new AtomicLong();
+    final long startTime = System.nanoTime();
+    final FileChannel channel;
+    final Thread writer;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private volatile boolean running = true;
+
+    /**
+     * Start a new capture (replacing the file, if it exists).
+     *
+     * @param file Capture file
+     * @throws IOException if the file can't be created
+     */
+    public TrafficCapture(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        this.writer = new Thread(this::writeBehind, "junkyplace-capture");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param session Session the frame arrived on
+     * @param frame Frame, as it arrived
+     */
+    public void inbound(String session, String frame) {
+        enqueue(new Record(INBOUND, System.nanoTime() - startTime, session, frame));
+    }
+
+    /**
+     * @param session Session the frame was sent to, or "*" if it was sent to every session
+     * @param frame Encoded frame
+     */
+    public void outbound(String session, String frame) {
+        enqueue(new Record(OUTBOUND, System.nanoTime() - startTime, session, frame));
+    }
+
+    /**
+     * @return number of frames that were not captured because the writer fell behind
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void enqueue(Record r) {
+        if (!queue.offer(r) && dropped.getAndIncrement() == 0) {
+            Log.log(Level.WARNING, this, "Capture queue is full, dropping frames");
+        }
+    }
+
+    /**
+     * Stop the writer once everything queued has been written, and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeBehind() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.log(Level.WARNING, this, "Unable to write traffic capture", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Record> batch) throws IOException {
+        buffer.clear();
+        for (Record r : batch) {
+            byte[] session = r.session.getBytes(StandardCharsets.UTF_8);
+            byte[] frame = r.frame.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + 8 + 4 + session.length + 4 + frame.length;
+            ensureCapacity(4 + length);
+            buffer.putInt(length).put(r.direction).putLong(r.nanos);
+            buffer.putInt(session.length).put(session);
+            buffer.putInt(frame.length).put(frame);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Read a capture file.
+     *
+     * @param file Capture file
+     * @return records, in the order they were captured
+     * @throws IOException if the file can't be read, or isn't a capture
+     */
+    public static List<Record> read(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(MapMode.READ_ONLY, 0, in.size());
+            if (data.remaining() < 4 || data.getInt() != MAGIC) {
+                throw new IOException(file + " is not a traffic capture");
+            }
+            List<Record> records = new ArrayList<>();
+            try {
+                while (data.remaining() >= 4) {
+                    int length = data.getInt();
+                    if (length <= 0 || length > data.remaining()) {
+                        break;
+                    }
+                    byte direction = data.get();
+                    long nanos = data.getLong();
+                    String session = readString(data);
+                    records.add(new Record(direction, nanos, session, readString(data)));
+                }
+            } catch (BufferUnderflowException e) {
+                // an incomplete record: stop here
+            }
+            return records;
+        }
+    }
+
+    static String readString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A captured frame */
+    public static class Record {
+        final byte direction;
+        final long nanos;
+        final String session;
+        final String frame;
+
+        Record(byte direction, long nanos, String session, String frame) {
+            this.direction = direction;
+            this.nanos = nanos;
+            this.session = session;
+            this.frame = frame;
+        }
+
+        /**
+         * @return {@link TrafficCapture#INBOUND} or {@link TrafficCapture#OUTBOUND}
+         */
+        public byte getDirection() {
+            return direction;
+        }
+
+        /**
+         * @return when the frame was captured, in nanoseconds since the capture started
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getSession() {
+            return session;
+        }
+
+        public String getFrame() {
+            return frame;
+        }
+
+        @Override
+        public String toString() {
+            return (direction == INBOUND ? "< " : "> ") + nanos + " " + session + " " + frame;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package dev.ebullient.gameontext.junkyplace.protocol;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.websocket.DecodeException;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dev.ebullient.gameontext.junkyplace.Log;
+import dev.ebullient.gameontext.junkyplace.Room;
+import io.quarkus.runtime.ShutdownEvent;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Alternative WebSocket endpoint for the room, built directly on Vert.x
+ * server WebSockets rather than JSR-356 annotations (Undertow).
+ *
+ * <p>
+ * Frames are decoded and passed to {@link Room#handleMessage(Message, MessageSink)}
+ * on the event loop: there is no hand-off to a worker thread. Each broadcast
+ * is encoded once and the same frame is written to every connection. If a
+ * connection's write queue fills up, we stop reading from it until it drains
+ * (backpressure), rather than letting it queue more work for the room.
+ * <p>
+ * This endpoint is off by default. Set {@code junkyplace.websocket.vertx.enabled=true}
+ * to listen on {@code junkyplace.websocket.vertx.path}, and register that path
+ * with the map to route players to it. Connections to this endpoint do not
+ * share broadcasts with {@link RoomEndpoint}: use one or the other.
+ * <p>
+ * On shutdown, it drains like {@link RoomEndpoint#drain()}: new connections are
+ * turned away, and open ones are closed once what was written to them has been sent.
+ */
+@ApplicationScoped
+public class VertxRoomEndpoint implements MessageSink {
+
+    @ConfigProperty(name = "junkyplace.websocket.vertx.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "junkyplace.websocket.vertx.path", defaultValue = "/junkyplace/reactive")
+    String path;
+
+    /** Outbound bytes to buffer for a connection before it counts as full */
+    @ConfigProperty(name = "junkyplace.websocket.vertx.write-queue-size", defaultValue = "65536")
+    int writeQueueSize;
+
+    @ConfigProperty(name = "junkyplace.session.shards", defaultValue = "16")
+    int shards;
+
+    @ConfigProperty(name = "junkyplace.shutdown.drain-timeout", defaultValue = "5s")
+    Duration drainTimeout;
+
+    @Inject
+    Room roomImplementation;
+
+    SessionRegistry<ServerWebSocket, ServerWebSocket> sockets;
+    private volatile boolean draining;
+
+    void init(@Observes Router router) {
+        if (!enabled) {
+            return;
+        }
+        sockets = new SessionRegistry<>(shards);
+        router.route(path).handler(this::onRequest);
+        roomImplementation.attach(this);
+        Log.log(Level.INFO, this, "Vert.x room endpoint listening on {0}", path);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (sockets != null) {
+            drain();
+        }
+    }
+
+    /**
+     * Stop taking new connections, and close open ones with 1001 (going away), so
+     * the mediator reconnects players elsewhere right away. Frames already written
+     * to a connection are sent ahead of its close frame: wait up to
+     * {@code junkyplace.shutdown.drain-timeout} for every connection to finish closing.
+     *
+     * @return how long draining took
+     */
+    public Duration drain() {
+        synchronized (this) {
+            if (draining) {
+                return Duration.ZERO;
+            }
+            draining = true;
+        }
+        long start = System.nanoTime();
+        int closing = sockets.size();
+        sockets.forEach(ws -> {
+            if (!ws.isClosed()) {
+                ws.close((short) 1001, "Room is restarting");
+            }
+        });
+
+        long deadline = start + drainTimeout.toNanos();
+        try {
+            while (sockets.size() > 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(5);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int open = sockets.size();
+
+        long elapsed = System.nanoTime() - start;
+        Log.log(open == 0 ? Level.INFO : Level.WARNING, this,
+                "Vert.x room endpoint drained in {0} ms: {1} connections closed, {2} still closing",
+                TimeUnit.NANOSECONDS.toMillis(elapsed), closing - open, open);
+        return Duration.ofNanos(elapsed);
+    }
+
+    /**
+     * Upgrade the request to a WebSocket, or turn it away with 400 (bad request)
+     * if it isn't asking for one (e.g. a plain GET from a browser).
+     *
+     * @param rc Request routed to this endpoint's path
+     */
+    void onRequest(RoutingContext rc) {
+        if (!"websocket".equalsIgnoreCase(rc.request().getHeader("Upgrade"))) {
+            rc.response().setStatusCode(400).end("Expected a WebSocket upgrade");
+            return;
+        }
+        onOpen(rc.request().upgrade());
+    }
+
+    void onOpen(ServerWebSocket ws) {
+        if (draining) {
+            // 1013: try again later (ask the mediator to try another replica)
+            ws.close((short) 1013, "Room is restarting");
+            return;
+        }
+        Log.log(Level.FINE, this, "A new connection has been made to the room.");
+        sockets.put(ws, ws);
+
+        ws.setWriteQueueMaxSize(writeQueueSize);
+        ws.textMessageHandler(text -> receiveMessage(ws, text));
+        ws.closeHandler(v -> {
+            Log.log(Level.FINE, this, "A connection to the room has been closed");
+            sockets.remove(ws);
+        });
+        ws.exceptionHandler(t -> onError(ws, t));
+
+        // All we have to do on open is send the acknowledgement
+        ws.writeTextMessage(Message.ACK_MSG.encode());
+    }
+
+    void onError(ServerWebSocket ws, Throwable t) {
+        Log.log(Level.FINE, this, "A problem occurred on connection", t);
+        sockets.remove(ws);
+        if (!ws.isClosed()) {
+            // 1011: unexpected condition
+            String reason = t.getClass().getName();
+            ws.close((short) 1011, reason.length() > 123 ? reason.substring(0, 123) : reason);
+        }
+    }
+
+    void receiveMessage(ServerWebSocket ws, String text) {
+        try {
+            roomImplementation.handleMessage(new Message(text), this);
+        } catch (DecodeException e) {
+            onError(ws, e);
+            return;
+        }
+
+        // Don't read more from a connection that can't keep up with what we send it
+        if (ws.writeQueueFull()) {
+            ws.pause();
+            ws.drainHandler(v -> ws.resume());
+        }
+    }
+
+    /**
+     * Simple broadcast: the frame is encoded once, and written to every connection.
+     *
+     * @param message Message to send
+     */
+    @Override
+    public void sendMessage(Message message) {
+        String frame = message.encode();
+        sockets.forEach(ws -> {
+            if (!ws.isClosed()) {
+                ws.writeTextMessage(frame);
+            }
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package dev.ebullient.gameontext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.AmbientScheduler;
+import dev.ebullient.gameontext.junkyplace.RoomDefinition;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class AmbientSchedulerTest {
+
+    static RoomDefinition definition(String every) throws Exception {
+        Path file = Files.createTempFile("ambient", ".room");
+        Files.writeString(file, "[room]\nname=test\n\n[ambient]\n"
+                + "teddy=The teddy burps\nteddy.every=" + every + "\n"
+                + "mud=The mud goes blorp\nmud.every=" + every + "\n"
+                + "shelf=A book falls over\nshelf.every=" + every + "\n",
+                StandardCharsets.UTF_8);
+        try {
+            return RoomDefinition.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEventsInOneTickAreBatched() throws Exception {
+        RoomDefinition definition = definition("50ms");
+        Assertions.assertEquals(3, definition.getAmbient().size());
+        Assertions.assertEquals(Duration.ofMillis(50), definition.getAmbient().get(0).getEvery());
+
+        // No jitter: all three events are due in the same tick
+        try (AmbientScheduler scheduler = new AmbientScheduler("test-ambient", Duration.ofMillis(5), 64, 0)) {
+            List<Message> sent = new CopyOnWriteArrayList<>();
+            scheduler.register(sent::add, definition::getAmbient, () -> true);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sent.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            Assertions.assertTrue(sent.size() >= 2, "events did not fire");
+            String frame = sent.get(0).encode();
+            System.out.println(frame);
+            Assertions.assertTrue(frame.contains("The teddy burps\\nThe mud goes blorp\\nA book falls over"), frame);
+        }
+    }
+
+    @Test
+    public void testNothingSentToEmptyRoom() throws Exception {
+        RoomDefinition definition = definition("10ms");
+        AtomicBoolean occupied = new AtomicBoolean();
+        List<Message> sent = new CopyOnWriteArrayList<>();
+
+        try (AmbientScheduler scheduler = new AmbientScheduler("test-ambient", Duration.ofMillis(2), 64, 0.5)) {
+            AmbientScheduler.Registration r = scheduler.register(sent::add, definition::getAmbient, occupied::get);
+            Thread.sleep(100);
+            Assertions.assertEquals(0, sent.size());
+
+            occupied.set(true);
+            Thread.sleep(100);
+            Assertions.assertTrue(sent.size() > 0);
+
+            r.close();
+            Thread.sleep(20);
+            int count = sent.size();
+            Thread.sleep(100);
+            Assertions.assertEquals(count, sent.size(), "events sent after registration was closed");
+        }
+    }
+
+    @Test
+    public void testManyRooms() throws Exception {
+        RoomDefinition definition = definition("200ms");
+        int rooms = 5_000;
+        AtomicInteger[] received = new AtomicInteger[rooms];
+
+        try (AmbientScheduler scheduler = new AmbientScheduler("test-ambient", Duration.ofMillis(10), 512, 0.5)) {
+            for (int i = 0; i < rooms; i++) {
+                AtomicInteger count = received[i] = new AtomicInteger();
+                scheduler.register(m -> count.incrementAndGet(), definition::getAmbient, () -> true);
+            }
+            Thread.sleep(1_000);
+
+            int timers = scheduler.size();
+            long broadcasts = 0;
+            for (AtomicInteger count : received) {
+                Assertions.assertTrue(count.get() > 0, "a room had no ambient events");
+                broadcasts += count.get();
+            }
+            System.out.printf("%d rooms, %d timers: %d broadcasts, tick lag %dµs%n", rooms, timers, broadcasts,
+                    TimeUnit.NANOSECONDS.toMicros(scheduler.getTickLag()));
+            // 3 events per room, plus one timer per room to notice definition changes
+            Assertions.assertTrue(timers >= rooms * 3, "timers: " + timers);
+        }
+    }
+}
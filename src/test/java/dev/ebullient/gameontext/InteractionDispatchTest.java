@@ -0,0 +1,211 @@
+package dev.ebullient.gameontext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.PlayerStates;
+import dev.ebullient.gameontext.junkyplace.RoomDefinition;
+
+/**
+ * Compare the compiled dispatch table with interpreting the same rules
+ * for every command: scanning every item's keywords, and checking each
+ * rule's conditions by name.
+ */
+public class InteractionDispatchTest {
+    static final String[] VERBS = { "look", "use" };
+    static final int COMMANDS = 1024;
+
+    @Test
+    public void testConditions() throws Exception {
+        RoomDefinition definition = RoomDefinition.fromResource("/junkyplace.room");
+        long muddy = 1L << PlayerStates.flag("muddy");
+
+        RoomDefinition.Interaction clean = definition.findInteraction("use", "teddy", 0);
+        RoomDefinition.Interaction dirty = definition.findInteraction("use", "teddy", muddy);
+        Assertions.assertFalse(clean.isConditional());
+        Assertions.assertTrue(dirty.isConditional());
+        Assertions.assertTrue(dirty.getSelf().render("bob").contains("covered in mud"));
+        Assertions.assertFalse(definition.findInteraction("look", "teddy", muddy).isConditional());
+
+        RoomDefinition.Interaction mud = definition.findInteraction("use", "mud", 0);
+        Assertions.assertTrue(mud.getSetsFlag() >= 0);
+        Assertions.assertEquals(-1, definition.findInteraction("use", "mud", muddy).getSetsFlag());
+    }
+
+    @Test
+    public void testNegatedConditions() throws Exception {
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, String.join("\n",
+                    "[states]",
+                    "wet=You are dripping wet.",
+                    "cold=You are shivering.",
+                    "[item sink]",
+                    "use/!wet.self=You splash water everywhere.",
+                    "use/!wet.sets=wet",
+                    "use/wet+cold.self=Not again.",
+                    "use.self=You wipe your hands on the towel.",
+                    "use.clears=wet",
+                    "").getBytes(StandardCharsets.UTF_8));
+            RoomDefinition definition = RoomDefinition.load(file);
+            long wet = 1L << PlayerStates.flag("wet");
+            long cold = 1L << PlayerStates.flag("cold");
+
+            Assertions.assertEquals("You splash water everywhere.", self(definition, "sink", 0));
+            Assertions.assertEquals("You wipe your hands on the towel.", self(definition, "sink", wet));
+            Assertions.assertEquals("Not again.", self(definition, "sink", wet | cold));
+            Assertions.assertTrue(definition.findInteraction("use", "sink", wet).getClearsFlag() >= 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static String self(RoomDefinition definition, String item, long flags) {
+        return definition.findInteraction("use", item, flags).getSelf().render("bob");
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testCompiledVsInterpreted() throws Exception {
+        compare(100, false); // warm up
+        System.out.println("items   compiled   interpreted (ns/command)");
+        for (int items : new int[] { 10, 100, 1000 }) {
+            compare(items, true);
+        }
+    }
+
+    void compare(int itemCount, boolean report) throws Exception {
+        String text = generate(itemCount);
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            RoomDefinition compiled = RoomDefinition.load(file);
+            Interpreted interpreted = new Interpreted(text);
+            long muddy = 1L << PlayerStates.flag("muddy");
+
+            SplittableRandom random = new SplittableRandom(itemCount);
+            String[] verbs = new String[COMMANDS];
+            String[] targets = new String[COMMANDS];
+            boolean[] dirty = new boolean[COMMANDS];
+            for (int i = 0; i < COMMANDS; i++) {
+                verbs[i] = VERBS[random.nextInt(VERBS.length)];
+                // some commands name something that isn't there
+                targets[i] = "at the thing" + random.nextInt(itemCount + itemCount / 10 + 1);
+                dirty[i] = random.nextBoolean();
+            }
+
+            // Both forms find the same responses
+            for (int i = 0; i < COMMANDS; i++) {
+                RoomDefinition.Interaction c = compiled.findInteraction(verbs[i], targets[i], dirty[i] ? muddy : 0);
+                String expected = interpreted.find(verbs[i], targets[i], dirty[i] ? Set.of("muddy") : Set.of());
+                Assertions.assertEquals(expected, c == null ? null : c.getSelf().toString(), verbs[i] + " " + targets[i]);
+            }
+
+            int rounds = 200_000 / COMMANDS + 1;
+            long found = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < COMMANDS; i++) {
+                    found += compiled.findInteraction(verbs[i], targets[i], dirty[i] ? muddy : 0) == null ? 0 : 1;
+                }
+            }
+            long compiledNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < COMMANDS; i++) {
+                    found += interpreted.find(verbs[i], targets[i], dirty[i] ? Set.of("muddy") : Set.of()) == null ? 0 : 1;
+                }
+            }
+            long interpretedNanos = System.nanoTime() - start;
+
+            long commands = (long) rounds * COMMANDS;
+            if (report) {
+                System.out.printf("%5d %10d %13d%n", itemCount, compiledNanos / commands, interpretedNanos / commands);
+            }
+            Assertions.assertTrue(found > 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static String generate(int items) {
+        StringBuilder sb = new StringBuilder("[states]\nmuddy=Your hands are muddy.\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("[item thing number ").append(i).append("]\n");
+            sb.append("keywords=thing").append(i).append('\n');
+            sb.append("look.self=You look at thing ").append(i).append('\n');
+            if (i % 2 == 0) {
+                sb.append("use/muddy.self=Thing ").append(i).append(" is muddy now\n");
+                sb.append("use.self=You use thing ").append(i).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The same rules, interpreted: every command scans the items in order,
+     * and conditions are checked by name.
+     */
+    static class Interpreted {
+        final List<String[]> keywords = new ArrayList<>();
+        final List<List<String[]>> rules = new ArrayList<>();
+
+        Interpreted(String text) {
+            for (String line : text.split("\n")) {
+                if (line.startsWith("[item ")) {
+                    keywords.add(null);
+                    rules.add(new ArrayList<>());
+                } else if (line.startsWith("keywords=")) {
+                    keywords.set(keywords.size() - 1, line.substring(9).split(","));
+                } else if (!rules.isEmpty()) {
+                    // rule, self text
+                    int eq = line.indexOf('=');
+                    String rule = line.substring(0, line.indexOf(".self"));
+                    rules.get(rules.size() - 1).add(new String[] { rule, line.substring(eq + 1) });
+                }
+            }
+        }
+
+        String find(String verb, String content, Set<String> states) {
+            for (String word : content.split("\\s+")) {
+                for (int i = 0; i < keywords.size(); i++) {
+                    for (String k : keywords.get(i)) {
+                        if (k.equals(word)) {
+                            String self = select(rules.get(i), verb, states);
+                            if (self != null) {
+                                return self;
+                            }
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        static String select(List<String[]> itemRules, String verb, Set<String> states) {
+            String fallback = null;
+            for (String[] rule : itemRules) {
+                String[] parts = rule[0].split("/");
+                if (!parts[0].equals(verb)) {
+                    continue;
+                }
+                if (parts.length == 1) {
+                    fallback = rule[1];
+                } else if (states.contains(parts[1])) {
+                    return rule[1];
+                }
+            }
+            return fallback;
+        }
+    }
+}
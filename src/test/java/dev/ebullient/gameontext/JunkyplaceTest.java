@@ -1,15 +1,35 @@
 package dev.ebullient.gameontext;
 
 import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.anyOf;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.Matchers.greaterThan;
 
+import java.net.URI;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Session;
+
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import io.quarkus.test.common.http.TestHTTPResource;
 import io.quarkus.test.junit.QuarkusTest;
 
 @QuarkusTest
 public class JunkyplaceTest {
 
+    @TestHTTPResource("/junkyplace/room")
+    URI uri;
+
     @Test
     public void testHelloEndpoint() {
         given()
@@ -19,6 +39,49 @@ public class JunkyplaceTest {
                 .body(is("hello"));
     }
 
+    @Test
+    public void testIndexEndpoint() {
+        given()
+                .when().get("/junkyplace/index")
+                .then()
+                .statusCode(200)
+                .body("exits.n", is("north"))
+                .body("commands.'/about'", containsString("Describe"));
+    }
+
+    @Test
+    public void testSlowLogEndpoint() throws Exception {
+        // Have the room handle a message and send a reply, so there is something in the log
+        LinkedBlockingDeque<String> messages = new LinkedBlockingDeque<>();
+        try (Session session = ContainerProvider.getWebSocketContainer().connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session s, EndpointConfig config) {
+                s.addMessageHandler(String.class, messages::add);
+            }
+        }, ClientEndpointConfig.Builder.create().build(), uri)) {
+            Assertions.assertEquals(Message.ACK_MSG.encode(), messages.poll(10, TimeUnit.SECONDS));
+            session.getBasicRemote().sendText(Message.createRoomHello("junkyplace", "slow-1", "Slow Sam", 2).encode());
+            Assertions.assertNotNull(messages.poll(10, TimeUnit.SECONDS));
+            session.getBasicRemote().sendText(Message.createRoomGoodbye("junkyplace", "slow-1", "Slow Sam").encode());
+        }
+
+        given()
+                .when().get("/junkyplace/slow")
+                .then()
+                .statusCode(200)
+                .body("windowSeconds", is(60))
+                .body("size", is(32))
+                .body("entries.size()", greaterThan(0))
+                .body("entries[0].kind", anyOf(is("HANDLE"), is("SEND")))
+                .body("entries[0].target", notNullValue())
+                .body("entries[0].verb", notNullValue())
+                .body("entries[0].user", notNullValue())
+                .body("entries[0].nanos", notNullValue())
+                .body("entries[0].payloadSize", notNullValue())
+                .body("entries[0].recipients", notNullValue())
+                .body("entries[0].recordedAt", notNullValue());
+    }
+
     @Test
     public void testPrometheusEndpoint() {
         given()
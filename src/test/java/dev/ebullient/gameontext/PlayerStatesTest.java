@@ -0,0 +1,139 @@
+package dev.ebullient.gameontext;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.PlayerStates;
+
+public class PlayerStatesTest {
+    static final long MINUTE = Duration.ofMinutes(1).toNanos();
+
+    final AtomicLong clock = new AtomicLong(1);
+
+    @Test
+    public void testFlagsAndCounters() {
+        PlayerStates states = new PlayerStates(100, Duration.ofMinutes(10), 2, clock::get);
+        int muddy = PlayerStates.flag("muddy");
+        int wet = PlayerStates.flag("wet");
+        Assertions.assertEquals(muddy, PlayerStates.flag("muddy"), "flags keep their bit");
+        Assertions.assertNotEquals(muddy, wet);
+
+        states.arrived("user1");
+        states.setFlag("user1", muddy);
+        Assertions.assertEquals(1L << muddy, states.getFlags("user1"));
+        Assertions.assertEquals(0, states.getFlags("user2"));
+
+        Assertions.assertEquals(1, states.increment("user1", 1));
+        Assertions.assertEquals(2, states.increment("user1", 1));
+        Assertions.assertEquals(0, states.getCounter("user1", 0));
+        Assertions.assertEquals(0, states.getCounter("user2", 1));
+
+        states.clearFlag("user1", muddy);
+        Assertions.assertEquals(0, states.getFlags("user1"));
+
+        // Players who didn't say hello are remembered once something happens to them
+        states.setFlag("user2", wet);
+        Assertions.assertEquals(1L << wet, states.getFlags("user2"));
+        Assertions.assertEquals(2, states.size());
+    }
+
+    @Test
+    public void testEvictAfterTtl() {
+        PlayerStates states = new PlayerStates(100, Duration.ofMinutes(10), 1, clock::get);
+        int muddy = PlayerStates.flag("muddy");
+        states.arrived("user1");
+        states.arrived("user2");
+        states.setFlag("user1", muddy);
+        states.setFlag("user2", muddy);
+
+        states.left("user1");
+        clock.addAndGet(5 * MINUTE);
+        states.left("user2");
+        Assertions.assertEquals(2, states.getDeparted());
+
+        // user1 comes back before the TTL: still muddy
+        clock.addAndGet(4 * MINUTE);
+        states.arrived("user1");
+        Assertions.assertEquals(1L << muddy, states.getFlags("user1"));
+        Assertions.assertEquals(1, states.getDeparted());
+
+        clock.addAndGet(6 * MINUTE);
+        Assertions.assertEquals(1, states.expire());
+        Assertions.assertEquals(0, states.getFlags("user2"));
+        Assertions.assertEquals(1, states.size());
+        Assertions.assertEquals(1, states.getEvicted());
+
+        // user1 is present: never evicted
+        clock.addAndGet(60 * MINUTE);
+        Assertions.assertEquals(0, states.expire());
+        Assertions.assertEquals(1L << muddy, states.getFlags("user1"));
+    }
+
+    @Test
+    public void testBudget() {
+        PlayerStates states = new PlayerStates(3, Duration.ofMinutes(10), 1, clock::get);
+        for (int i = 0; i < 3; i++) {
+            states.arrived("user" + i);
+            states.increment("user" + i, 0);
+        }
+        states.left("user1");
+        states.left("user0");
+
+        // Full: the player who left first makes room
+        states.arrived("user3");
+        Assertions.assertEquals(0, states.getCounter("user1", 0));
+        Assertions.assertEquals(1, states.getCounter("user0", 0));
+        Assertions.assertEquals(1, states.getEvicted());
+
+        states.arrived("user4");
+        Assertions.assertEquals(0, states.getCounter("user0", 0));
+
+        // Full, and everyone is present
+        states.arrived("user5");
+        Assertions.assertEquals(0, states.increment("user5", 0));
+        Assertions.assertEquals(2, states.getRejected());
+        Assertions.assertEquals(3, states.size());
+    }
+
+    @Test
+    public void testManyPlayers() {
+        int players = 50_000;
+        PlayerStates states = new PlayerStates(players, Duration.ofMinutes(10), 1, clock::get);
+        int flag = PlayerStates.flag("visited");
+
+        long start = System.nanoTime();
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < players; i++) {
+                String userId = "user" + i;
+                states.arrived(userId);
+                states.setFlag(userId, flag);
+                states.increment(userId, 0);
+                states.left(userId);
+            }
+            clock.addAndGet(11 * MINUTE);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d players x 4 visits: %dms, %d bytes%n", players, elapsed / 1_000_000,
+                states.estimatedBytes());
+
+        // Every visit was more than the TTL apart: each was forgotten before the next
+        Assertions.assertEquals(1, states.getCounter("user123", 0));
+        Assertions.assertEquals(players, states.size());
+        states.expire();
+        Assertions.assertEquals(0, states.size());
+        Assertions.assertEquals(4L * players, states.getEvicted());
+        Assertions.assertEquals(0, states.getRejected());
+
+        // Removing everyone left the index consistent
+        for (int i = 0; i < players; i += 7) {
+            states.arrived("user" + i);
+        }
+        for (int i = 0; i < players; i += 7) {
+            Assertions.assertEquals(0, states.getCounter("user" + i, 0));
+            Assertions.assertEquals(1, states.increment("user" + i, 0), "user" + i);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dev.ebullient.gameontext;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.Room;
+import dev.ebullient.gameontext.junkyplace.protocol.InMemorySink;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class RoomCommandsTest {
+    static final String ROOM_ID = "junkyplace";
+
+    Room room;
+    InMemorySink sink;
+
+    @BeforeEach
+    public void setup() {
+        room = Room.standalone();
+        sink = new InMemorySink(16);
+        room.handleMessage(Message.createRoomHello(ROOM_ID, "user1", "bob", 2), sink);
+        room.handleMessage(Message.createRoomHello(ROOM_ID, "user2", "Mary Ann", 2), sink);
+        sink.clear();
+    }
+
+    String say(String userId, String username, String content) {
+        room.handleMessage(Message.createRoomMessage(ROOM_ID, userId, username, content), sink);
+        return sink.last().encode();
+    }
+
+    @Test
+    public void testWhisper() {
+        say("user1", "bob", "/whisper MARY ANN Nice Socks!");
+        Assertions.assertEquals(2, sink.getCount());
+        Message to = sink.getMessages().get(0);
+        Message from = sink.getMessages().get(1);
+        Assertions.assertEquals("user2", to.getTargetId());
+        Assertions.assertTrue(to.encode().contains("\"user2\":\"bob whispers: Nice Socks!\""), to.encode());
+        Assertions.assertEquals("user1", from.getTargetId());
+        Assertions.assertTrue(from.encode().contains("You whisper to Mary Ann: Nice Socks!"), from.encode());
+        Assertions.assertFalse(to.encode().contains("\"*\""), "whispers aren't for everyone");
+
+        sink.clear();
+        Assertions.assertTrue(say("user1", "bob", "/whisper").contains("Who do you want to whisper to?"));
+        Assertions.assertTrue(say("user1", "bob", "/whisper mary ann").contains("What do you want to whisper to mary ann?"));
+        Assertions.assertTrue(say("user1", "bob", "/whisper mary hello").contains("There is no one called mary here"));
+        Assertions.assertEquals(3, sink.getCount(), "one reply each, only to the player whispering");
+        sink.getMessages().forEach(m -> Assertions.assertEquals("user1", m.getTargetId()));
+
+        // Players who leave can't be whispered to
+        room.handleMessage(Message.createRoomGoodbye(ROOM_ID, "user2", "Mary Ann"), sink);
+        String gone = say("user1", "bob", "/whisper mary ann hello");
+        Assertions.assertTrue(gone.contains("There is no one called mary"), gone);
+    }
+
+    @Test
+    public void testEmote() {
+        String emote = say("user1", "bob", "/emote Waves at everyone");
+        Assertions.assertTrue(emote.startsWith("player,*,"), emote);
+        Assertions.assertTrue(emote.contains("\"*\":\"bob Waves at everyone\""), emote);
+
+        String empty = say("user1", "bob", "/emote");
+        Assertions.assertTrue(empty.startsWith("player,user1,"), empty);
+        Assertions.assertTrue(empty.contains("What do you want to do?"), empty);
+    }
+
+    @Test
+    public void testLookAtSelf() {
+        Assertions.assertTrue(say("user1", "bob", "/look me").contains(Room.LOOK_SELF));
+        say("user1", "bob", "/use mud");
+        Assertions.assertTrue(say("user1", "bob", "/look me").contains("covered in sticky mud"));
+        Assertions.assertTrue(say("user2", "Mary Ann", "/examine myself").contains(Room.LOOK_SELF));
+    }
+}
@@ -0,0 +1,186 @@
+package dev.ebullient.gameontext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.ExitTable;
+import dev.ebullient.gameontext.junkyplace.RoomDefinition;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class RoomDefinitionTest {
+
+    @Test
+    public void testBundledDefinition() throws Exception {
+        RoomDefinition definition = RoomDefinition.fromResource("/junkyplace.room");
+
+        Assertions.assertEquals("junkyPlace", definition.getRoomDescription().getName());
+        Assertions.assertEquals("The Junky Place", definition.getRoomDescription().getFullName());
+        Assertions.assertTrue(definition.getRoomDescription().getCommands().containsKey("/use"));
+        Assertions.assertTrue(definition.getRoomDescription().getRoomInventory().contains("moon diagram"));
+        Assertions.assertFalse(definition.getRoomDescription().getRoomInventory().contains("book"),
+                "hidden items should not be listed");
+        Assertions.assertTrue(definition.getLocationPayload().contains("\"name\":\"junkyPlace\""),
+                definition.getLocationPayload());
+    }
+
+    @Test
+    public void testFindInteraction() throws Exception {
+        RoomDefinition definition = RoomDefinition.fromResource("/junkyplace.room");
+
+        RoomDefinition.Interaction look = definition.findInteraction("look", "the moon diagram");
+        Assertions.assertNotNull(look);
+        Assertions.assertEquals("bob picks up the moon diagram and looks at it fondly before dropping it again",
+                look.getAll().render("bob"));
+
+        look = definition.findInteraction("look", "red teddy bear");
+        Assertions.assertNotNull(look);
+        Assertions.assertNull(look.getSelf());
+
+        RoomDefinition.Interaction use = definition.findInteraction("use", "a book");
+        Assertions.assertNotNull(use);
+        Assertions.assertEquals("w", use.getExitId());
+
+        Assertions.assertNull(definition.findInteraction("look", "book"));
+        Assertions.assertNull(definition.findInteraction("use", "socks"));
+    }
+
+    @Test
+    public void testAmbient() throws Exception {
+        RoomDefinition definition = RoomDefinition.fromResource("/junkyplace.room");
+
+        Assertions.assertEquals(2, definition.getAmbient().size());
+        RoomDefinition.Ambient teddy = definition.getAmbient().get(0);
+        Assertions.assertEquals("teddy", teddy.getName());
+        Assertions.assertEquals(Duration.ofMinutes(3), teddy.getEvery());
+        Assertions.assertTrue(teddy.getText().contains("burps"));
+    }
+
+    @Test
+    public void testStates() throws Exception {
+        RoomDefinition definition = RoomDefinition.fromResource("/junkyplace.room");
+
+        Assertions.assertTrue(definition.getStates().get("muddy").contains("mud"));
+        Assertions.assertEquals("muddy", definition.findInteraction("use", "mud").getSets());
+        Assertions.assertNull(definition.findInteraction("use", "teddy").getSets());
+
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, "[item lamp]\nuse=It's on\nuse.sets=lit\n".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> RoomDefinition.load(file),
+                    "states must be defined");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRuleWithoutResponse() throws Exception {
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, "[states]\nlit=The lamp is on.\n[item lamp]\nuse.sets=lit\n".getBytes(StandardCharsets.UTF_8));
+            IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> RoomDefinition.load(file));
+            Assertions.assertTrue(e.getMessage().contains("lamp") && e.getMessage().contains("use"), e.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRuleWithUnknownExit() throws Exception {
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, "[exits]\nn=North\n[item door]\nuse=You open the door\nuse.exit=nw\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> RoomDefinition.load(file));
+            Assertions.assertTrue(e.getMessage().contains("door") && e.getMessage().contains("nw"), e.getMessage());
+
+            Files.write(file, "[exits]\nn=North\n[item door]\nuse=You open the door\nuse.exit=n\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals("n", RoomDefinition.load(file).findInteraction("use", "door").getExitId());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testExits() throws Exception {
+        RoomDefinition definition = RoomDefinition.fromResource("/junkyplace.room");
+
+        Assertions.assertEquals("n", definition.getExitId("n"));
+        Assertions.assertEquals("w", definition.getExitId("west"));
+        Assertions.assertNull(definition.getExitId("up"));
+        Assertions.assertEquals("east", definition.getExitName("e"));
+    }
+
+    @Test
+    public void testExitAliases() throws Exception {
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, String.join("\n",
+                    "[exits]",
+                    "n = north, forward",
+                    "u = Up, upstairs, ladder",
+                    "d = down, n",
+                    "").getBytes(StandardCharsets.UTF_8));
+
+            RoomDefinition definition = RoomDefinition.load(file);
+            Assertions.assertEquals("u", definition.getExitId("up"));
+            Assertions.assertEquals("u", definition.getExitId("ladder"));
+            Assertions.assertEquals("n", definition.getExitId("forward"));
+            Assertions.assertEquals("n", definition.getExitId("n"), "ids win over aliases");
+            Assertions.assertEquals("up", definition.getExitName("u"));
+            Assertions.assertNull(definition.getExit("sideways"));
+
+            ExitTable.Exit up = definition.getExit("upstairs");
+            Message m1 = up.createExitMessage("user1");
+            System.out.println(m1.encode());
+            Assertions.assertEquals(Message.createExitMessage("user1", "u", "You head up"), m1);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadFile() throws Exception {
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, String.join("\n",
+                    "[room]",
+                    "name = other",
+                    "description = Another room",
+                    "[exits]",
+                    "u = up",
+                    "[item lamp]",
+                    "keywords = light, lantern",
+                    "use.self = It is now light, {username}",
+                    "").getBytes(StandardCharsets.UTF_8));
+
+            RoomDefinition definition = RoomDefinition.load(file);
+            Assertions.assertEquals("other", definition.getRoomDescription().getName());
+            Assertions.assertEquals("Another room", definition.getRoomDescription().getDescription());
+            Assertions.assertEquals("u", definition.getExitId("up"));
+            Assertions.assertEquals("It is now light, bob",
+                    definition.findInteraction("use", "lantern").getSelf().render("bob"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testBadlyFormedDefinition() throws Exception {
+        Path file = Files.createTempFile("room", ".room");
+        try {
+            Files.write(file, "[room]\nname\n".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> RoomDefinition.load(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
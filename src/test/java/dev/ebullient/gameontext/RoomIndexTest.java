@@ -0,0 +1,73 @@
+package dev.ebullient.gameontext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.ebullient.gameontext.junkyplace.Room;
+import dev.ebullient.gameontext.junkyplace.RoomDefinition;
+import dev.ebullient.gameontext.junkyplace.RoomIndex;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class RoomIndexTest {
+
+    @Test
+    public void testAboutAndHelp() throws Exception {
+        RoomIndex index = RoomDefinition.fromResource("/junkyplace.room").getIndex();
+
+        String about = index.getAbout().format(null);
+        System.out.println(about);
+        Assertions.assertTrue(about.startsWith("The Junky Place: This room is very old."), about);
+        Assertions.assertTrue(about.contains("red teddy bear"), about);
+        Assertions.assertTrue(about.contains("Exits: north, south, east, west"), about);
+        Assertions.assertFalse(about.contains("book,"), "hidden items are not listed: " + about);
+
+        String use = index.getHelp("use").format(null);
+        System.out.println(use);
+        Assertions.assertEquals(use, index.getHelp("/use").format(null));
+        Assertions.assertTrue(use.contains("Things to use: "), use);
+        Assertions.assertTrue(use.contains("moon diagram"), use);
+        Assertions.assertFalse(use.contains("bookshelf"), use);
+
+        Assertions.assertTrue(index.getHelp("/go").format(null).contains("Exits: north"));
+        Assertions.assertTrue(index.getHelp(null).format(null).contains("/about"));
+        Assertions.assertNull(index.getHelp("/dance"));
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        RoomIndex index = RoomDefinition.fromResource("/junkyplace.room").getIndex();
+        System.out.println(index.toJson());
+
+        Map<?, ?> json = new ObjectMapper().readValue(index.toJson(), Map.class);
+        Assertions.assertEquals("junkyPlace", json.get("name"));
+        Assertions.assertEquals(List.of("look", "use"), ((Map<?, ?>) json.get("items")).get("red teddy bear"));
+        Assertions.assertEquals("west", ((Map<?, ?>) json.get("exits")).get("w"));
+        Assertions.assertTrue(((Map<?, ?>) json.get("commands")).containsKey("/use"));
+    }
+
+    @Test
+    public void testRoomCommands() throws Exception {
+        Room room = Room.standalone();
+        List<Message> sent = new ArrayList<>();
+
+        room.handleMessage(Message.createRoomMessage("junkyplace", "user1", "bob", "/about"), sent::add);
+        room.handleMessage(Message.createRoomMessage("junkyplace", "user1", "bob", "/help go"), sent::add);
+        room.handleMessage(Message.createRoomMessage("junkyplace", "user1", "bob", "/help \"dance\""), sent::add);
+        sent.forEach(System.out::println);
+
+        Assertions.assertEquals(3, sent.size());
+        for (Message m : sent) {
+            Assertions.assertEquals("user1", m.getTargetId());
+            Assertions.assertEquals(m, new Message(m.encode()));
+        }
+        Assertions.assertTrue(sent.get(0).encode().contains("Things here: "));
+        Assertions.assertTrue(sent.get(1).encode().contains("Go through an exit"));
+        Assertions.assertTrue(sent.get(2).encode().contains("no help for `\\\"dance\\\"`"), sent.get(2).encode());
+    }
+}
@@ -0,0 +1,134 @@
+package dev.ebullient.gameontext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.RoomJournal;
+
+public class RoomJournalTest {
+    Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        AtomicLong bookmark = new AtomicLong(42);
+        Map<String, String> players = new ConcurrentHashMap<>();
+
+        RoomJournal journal = new RoomJournal(directory, 10000);
+        Assertions.assertEquals(-1, journal.replay(players));
+        journal.start(bookmark::get);
+        journal.arrived("u1", "one");
+        journal.arrived("u2", "two");
+        journal.left("u1");
+        journal.close();
+
+        Map<String, String> replayed = new HashMap<>();
+        Assertions.assertEquals(42, new RoomJournal(directory, 10000).replay(replayed));
+        Assertions.assertEquals(Map.of("u2", "two"), replayed);
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        AtomicLong bookmark = new AtomicLong();
+        Map<String, String> players = new ConcurrentHashMap<>();
+
+        RoomJournal journal = new RoomJournal(directory, 5);
+        journal.replay(players);
+        journal.start(bookmark::get);
+        for (int i = 0; i < 100; i++) {
+            bookmark.incrementAndGet();
+            players.put("u" + i, "user" + i);
+            journal.arrived("u" + i, "user" + i);
+            if (i % 2 == 0) {
+                players.remove("u" + i);
+                journal.left("u" + i);
+            }
+        }
+        journal.close();
+
+        Assertions.assertTrue(Files.exists(directory.resolve("room.snapshot")), "journal should have been compacted");
+
+        Map<String, String> replayed = new HashMap<>();
+        Assertions.assertEquals(100, new RoomJournal(directory, 5).replay(replayed));
+        Assertions.assertEquals(players, replayed);
+    }
+
+    @Test
+    public void testSnapshotIncludesReplayedState() throws Exception {
+        RoomJournal journal = new RoomJournal(directory, 10000);
+        journal.replay(new HashMap<>());
+        journal.start(() -> 1);
+        journal.arrived("u1", "one");
+        journal.close();
+
+        // The snapshot is built from what the journal has recorded, starting with what it replayed
+        journal = new RoomJournal(directory, 1);
+        journal.replay(new HashMap<>());
+        journal.start(() -> 2);
+        journal.arrived("u2", "two");
+        journal.close();
+
+        Assertions.assertTrue(Files.exists(directory.resolve("room.snapshot")), "journal should have been compacted");
+        Assertions.assertEquals(0, Files.size(directory.resolve("room.journal")));
+
+        Map<String, String> replayed = new HashMap<>();
+        Assertions.assertEquals(2, new RoomJournal(directory, 10000).replay(replayed));
+        Assertions.assertEquals(Map.of("u1", "one", "u2", "two"), replayed);
+    }
+
+    @Test
+    public void testTornWrite() throws Exception {
+        Map<String, String> players = new ConcurrentHashMap<>();
+
+        RoomJournal journal = new RoomJournal(directory, 10000);
+        journal.replay(players);
+        journal.start(() -> 7);
+        journal.arrived("u1", "one");
+        journal.close();
+
+        // Simulate a crash part-way through a write
+        try (FileChannel channel = FileChannel.open(directory.resolve("room.journal"), StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 40, 1, 2 }));
+        }
+
+        Map<String, String> replayed = new ConcurrentHashMap<>();
+        journal = new RoomJournal(directory, 10000);
+        Assertions.assertEquals(7, journal.replay(replayed));
+        Assertions.assertEquals(Map.of("u1", "one"), replayed);
+
+        // New records are appended after the last good record
+        journal.start(() -> 8);
+        journal.arrived("u2", "two");
+        journal.close();
+
+        replayed = new HashMap<>();
+        Assertions.assertEquals(8, new RoomJournal(directory, 10000).replay(replayed));
+        Assertions.assertEquals(Map.of("u1", "one", "u2", "two"), replayed);
+    }
+}
@@ -0,0 +1,58 @@
+package dev.ebullient.gameontext;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.Room;
+import dev.ebullient.gameontext.junkyplace.RoomSimulation;
+import dev.ebullient.gameontext.junkyplace.protocol.InMemorySink;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class RoomSimulationTest {
+
+    @Test
+    public void testInMemorySink() {
+        InMemorySink sink = new InMemorySink(4);
+        for (int i = 0; i < 6; i++) {
+            sink.sendMessage(Message.createSpecificEvent("user1", "event " + i));
+        }
+        sink.sendMessage(Message.createExitMessage("user1", "n"));
+
+        Assertions.assertEquals(7, sink.getCount());
+        Assertions.assertEquals(6, sink.getCount(Message.Target.player));
+        Assertions.assertEquals(1, sink.getCount(Message.Target.playerLocation));
+        List<Message> kept = sink.getMessages();
+        Assertions.assertEquals(4, kept.size());
+        Assertions.assertTrue(kept.get(0).encode().contains("event 3"), kept.get(0).encode());
+        Assertions.assertSame(sink.last(), kept.get(3));
+
+        sink.clear();
+        Assertions.assertEquals(0, sink.getCount());
+        Assertions.assertNull(sink.last());
+        Assertions.assertTrue(sink.getMessages().isEmpty());
+    }
+
+    @Test
+    public void testProperties() throws Exception {
+        for (long seed = 1; seed <= 3; seed++) {
+            RoomSimulation simulation = new RoomSimulation(Room.standalone(), 50, seed);
+            List<String> violations = simulation.check(50_000);
+            Assertions.assertEquals(List.of(), violations, "seed " + seed);
+        }
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        RoomSimulation simulation = new RoomSimulation(Room.standalone(), 100, 42);
+        simulation.run(100_000, true);
+
+        RoomSimulation.Result decoded = simulation.run(1_000_000, false);
+        RoomSimulation.Result frames = simulation.run(1_000_000, true);
+        System.out.println("decoded: " + decoded);
+        System.out.println("frames:  " + frames);
+        Assertions.assertTrue(decoded.getReplies() >= decoded.getMessages() * 9 / 10, decoded.toString());
+        Assertions.assertEquals(decoded.getReplies(), frames.getReplies());
+    }
+}
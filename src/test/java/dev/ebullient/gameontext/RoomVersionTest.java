@@ -0,0 +1,85 @@
+package dev.ebullient.gameontext;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.RoomDefinition;
+import dev.ebullient.gameontext.junkyplace.RoomVersion;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class RoomVersionTest {
+    static final String ROOM = "[room]\nname=test\nfullName=Test Room\ndescription=%s\n\n"
+            + "[item teddy]\nlook=%s\n\n"
+            + "[item %s]\nlook=It's there\n";
+
+    static RoomDefinition definition(String description, String teddy, String other) throws Exception {
+        Path file = Files.createTempFile("version", ".room");
+        Files.writeString(file, String.format(ROOM, description, teddy, other), StandardCharsets.UTF_8);
+        try {
+            return RoomDefinition.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        RoomVersion v1 = RoomVersion.first(definition("A long description", "It burps", "mud"));
+
+        Assertions.assertEquals(1, v1.getVersion());
+        Assertions.assertNull(v1.getDelta());
+        Assertions.assertTrue(v1.getSnapshot().startsWith("{\"type\":\"location\""), v1.getSnapshot());
+        Assertions.assertTrue(v1.getSnapshot().contains("\"version\":1"), v1.getSnapshot());
+        Assertions.assertTrue(v1.getSnapshot().contains("A long description"), v1.getSnapshot());
+    }
+
+    @Test
+    public void testInventoryDelta() throws Exception {
+        RoomVersion v1 = RoomVersion.first(definition("A long description", "It burps", "mud"));
+        RoomVersion v2 = v1.next(definition("A long description", "It burps", "bookshelf"));
+
+        Assertions.assertEquals(2, v2.getVersion());
+        Message.LocationDelta delta = v2.getDelta();
+        Assertions.assertEquals(List.of("bookshelf"), delta.added);
+        Assertions.assertEquals(List.of("mud"), delta.removed);
+        Assertions.assertNull(delta.description);
+        Assertions.assertNull(delta.commands);
+
+        String frame = Message.createLocationDeltaMessage(delta).encode();
+        System.out.println(frame);
+        Assertions.assertEquals(
+                "player,*,{\"type\":\"locationDelta\",\"version\":2,\"added\":[\"bookshelf\"],\"removed\":[\"mud\"]}",
+                frame);
+        Assertions.assertTrue(frame.length() < v2.getSnapshot().length());
+    }
+
+    @Test
+    public void testDescriptionDelta() throws Exception {
+        RoomVersion v1 = RoomVersion.first(definition("A long description", "It burps", "mud"));
+        RoomVersion v2 = v1.next(definition("A longer description", "It burps", "mud"));
+
+        Message.LocationDelta delta = v2.getDelta();
+        Assertions.assertEquals("A longer description", delta.description);
+        Assertions.assertTrue(delta.added.isEmpty());
+        Assertions.assertTrue(delta.removed.isEmpty());
+        Assertions.assertTrue(v2.getSnapshot().contains("A longer description"), v2.getSnapshot());
+    }
+
+    @Test
+    public void testHiddenChangeKeepsVersion() throws Exception {
+        RoomVersion v1 = RoomVersion.first(definition("A long description", "It burps", "mud"));
+        RoomDefinition changed = definition("A long description", "It squeaks", "mud");
+        RoomVersion v2 = v1.next(changed);
+
+        // Item responses aren't part of the location: nothing to tell players
+        Assertions.assertEquals(1, v2.getVersion());
+        Assertions.assertNull(v2.getDelta());
+        Assertions.assertSame(v1.getSnapshot(), v2.getSnapshot());
+        Assertions.assertSame(changed, v2.getDefinition());
+    }
+}
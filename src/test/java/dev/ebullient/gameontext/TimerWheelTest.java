@@ -0,0 +1,70 @@
+package dev.ebullient.gameontext;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.TimerWheel;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testTimersFireInOrder() throws Exception {
+        try (TimerWheel wheel = new TimerWheel("test-timers", Duration.ofMillis(1), 8)) {
+            List<Integer> fired = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(3);
+
+            // 30ms is more than one turn of the wheel
+            wheel.schedule(Duration.ofMillis(30), () -> {
+                fired.add(30);
+                latch.countDown();
+            });
+            wheel.schedule(Duration.ofMillis(2), () -> {
+                fired.add(2);
+                latch.countDown();
+            });
+            wheel.schedule(Duration.ofMillis(10), () -> {
+                fired.add(10);
+                latch.countDown();
+            });
+
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of(2, 10, 30), fired);
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        try (TimerWheel wheel = new TimerWheel("test-timers", Duration.ofMillis(1), 8)) {
+            AtomicInteger fired = new AtomicInteger();
+            CountDownLatch latch = new CountDownLatch(1);
+
+            TimerWheel.Timeout timeout = wheel.schedule(Duration.ofMillis(5), fired::incrementAndGet);
+            timeout.cancel();
+            wheel.schedule(Duration.ofMillis(20), latch::countDown);
+
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, fired.get());
+        }
+    }
+
+    @Test
+    public void testManyTimers() throws Exception {
+        try (TimerWheel wheel = new TimerWheel("test-timers", Duration.ofMillis(1), 64)) {
+            int count = 10_000;
+            CountDownLatch latch = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                wheel.schedule(Duration.ofMillis(i % 200), latch::countDown);
+            }
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            System.out.printf("Tick lag after %d timers: %dµs%n", count,
+                    TimeUnit.NANOSECONDS.toMicros(wheel.getTickLag()));
+        }
+    }
+}
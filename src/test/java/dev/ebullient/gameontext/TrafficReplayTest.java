@@ -0,0 +1,95 @@
+package dev.ebullient.gameontext;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.Room;
+import dev.ebullient.gameontext.junkyplace.TrafficReplay;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.TrafficCapture;
+
+public class TrafficReplayTest {
+
+    static final Message[] TRAFFIC = {
+            Message.createRoomHello("junkyplace", "user1", "bob", 2),
+            Message.createRoomMessage("junkyplace", "user1", "bob", "/look teddy"),
+            Message.createRoomMessage("junkyplace", "user1", "bob", "hello everyone"),
+            Message.createRoomMessage("junkyplace", "user1", "bob", "/use mud"),
+            Message.createRoomMessage("junkyplace", "user1", "bob", "/go up"),
+            Message.createRoomMessage("junkyplace", "user1", "bob", "/go n"),
+    };
+
+    /** Capture traffic the way the endpoint does: frames in, and everything the room sends */
+    static Path capture(boolean tamper) throws Exception {
+        Path file = Files.createTempFile("junkyplace", ".capture");
+        Room room = Room.standalone();
+        try (TrafficCapture capture = new TrafficCapture(file)) {
+            for (Message m : TRAFFIC) {
+                capture.inbound("s1", m.encode());
+                room.handleMessage(new Message(m.encode()), out -> capture.outbound("*", out.encode()));
+                Thread.sleep(2);
+            }
+            if (tamper) {
+                capture.outbound("*", Message.createChatMessage("bob", "something else").encode());
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void testReplayMatches() throws Exception {
+        Path file = capture(false);
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        Files.delete(file);
+
+        Assertions.assertEquals(TrafficCapture.INBOUND, records.get(0).getDirection());
+        Assertions.assertEquals(TRAFFIC[0].encode(), records.get(0).getFrame());
+        Assertions.assertTrue(records.get(records.size() - 1).getNanos() > 0);
+
+        // bookmarks in the replay differ from those captured
+        TrafficReplay.Result result = new TrafficReplay(Room.standalone()).replay(records, 0);
+        System.out.println(result);
+        Assertions.assertTrue(result.matches(), result.toString());
+        Assertions.assertEquals(TRAFFIC.length, result.getHandled());
+
+        // at the original pace, the replay takes at least as long as the capture
+        long lastInbound = records.stream()
+                .filter(r -> r.getDirection() == TrafficCapture.INBOUND)
+                .mapToLong(TrafficCapture.Record::getNanos).max().orElseThrow();
+        result = new TrafficReplay(Room.standalone()).replay(records, 1);
+        Assertions.assertTrue(result.matches(), result.toString());
+        Assertions.assertTrue(result.getElapsedNanos() >= lastInbound, result.getElapsedNanos() + " < " + lastInbound);
+    }
+
+    @Test
+    public void testReplayDiffers() throws Exception {
+        Path file = capture(true);
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        Files.delete(file);
+
+        TrafficReplay.Result result = new TrafficReplay(Room.standalone()).replay(records, 0);
+        System.out.println(result);
+        Assertions.assertFalse(result.matches());
+        Assertions.assertFalse(result.isReordered());
+        Assertions.assertEquals(1, result.getDifferences().size());
+        Assertions.assertTrue(result.getDifferences().get(0).contains("something else"));
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws Exception {
+        Path file = capture(false);
+        int count = TrafficCapture.read(file).size();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        Files.delete(file);
+        Assertions.assertEquals(count - 1, records.size());
+    }
+}
@@ -0,0 +1,61 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.ClusterFanout;
+import dev.ebullient.gameontext.junkyplace.protocol.FrameBatch;
+import dev.ebullient.gameontext.junkyplace.protocol.LoopbackRoomBus;
+
+public class ClusterFanoutTest {
+
+    @Test
+    public void testForwardBetweenNodes() throws Exception {
+        LoopbackRoomBus busA = new LoopbackRoomBus();
+        LoopbackRoomBus busB = busA.join();
+
+        List<String> receivedA = new ArrayList<>();
+        List<String> receivedB = new ArrayList<>();
+        ClusterFanout a = new ClusterFanout(busA, 2, receivedA::add);
+        ClusterFanout b = new ClusterFanout(busB, 2, receivedB::add);
+
+        a.forward("one");
+        a.forward("two");
+        a.forward("three");
+        b.forward("four");
+
+        Assertions.assertEquals(3, a.flush());
+        Assertions.assertEquals(1, b.flush());
+
+        Assertions.assertEquals(List.of("one", "two", "three"), receivedB);
+        Assertions.assertEquals(List.of("four"), receivedA);
+    }
+
+    @Test
+    public void testDuplicatesDropped() throws Exception {
+        LoopbackRoomBus busA = new LoopbackRoomBus();
+        LoopbackRoomBus busB = busA.join();
+
+        List<String> receivedB = new ArrayList<>();
+        new ClusterFanout(busB, 10, receivedB::add);
+
+        busA.publish(new FrameBatch(busA.nodeId(), 1, List.of("one", "two")));
+        busA.publish(new FrameBatch(busA.nodeId(), 1, List.of("one", "two")));
+        busA.publish(new FrameBatch(busA.nodeId(), 2, List.of("two", "three")));
+
+        Assertions.assertEquals(List.of("one", "two", "three"), receivedB);
+    }
+
+    @Test
+    public void testNoPeers() throws Exception {
+        List<String> received = new ArrayList<>();
+        ClusterFanout a = new ClusterFanout(new LoopbackRoomBus(), 10, received::add);
+
+        a.forward("one");
+        Assertions.assertEquals(0, a.flush());
+        Assertions.assertTrue(received.isEmpty());
+    }
+}
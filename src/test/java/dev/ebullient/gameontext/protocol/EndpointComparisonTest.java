@@ -0,0 +1,108 @@
+package dev.ebullient.gameontext.protocol;
+
+import static io.restassured.RestAssured.given;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.ClientEndpoint;
+import javax.websocket.ContainerProvider;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+
+/**
+ * Compare chat round trips through the JSR-356 (Undertow) endpoint
+ * and the Vert.x endpoint (enabled only for this test, see {@link VertxEnabled}).
+ */
+@QuarkusTest
+@TestProfile(EndpointComparisonTest.VertxEnabled.class)
+public class EndpointComparisonTest {
+    static final int WARMUP = 100;
+    static final int MESSAGES = 1000;
+
+    @TestHTTPResource("/junkyplace/room")
+    URI undertow;
+
+    @TestHTTPResource("/junkyplace/reactive")
+    URI vertx;
+
+    @Test
+    @Tag("benchmark")
+    public void testCompareEndpoints() throws Exception {
+        roundTrips(undertow, WARMUP);
+        roundTrips(vertx, WARMUP);
+
+        report("undertow", roundTrips(undertow, MESSAGES));
+        report("vert.x", roundTrips(vertx, MESSAGES));
+    }
+
+    @Test
+    public void testPlainRequestRejected() {
+        given()
+                .when().get("/junkyplace/reactive")
+                .then()
+                .statusCode(400);
+    }
+
+    long[] roundTrips(URI uri, int count) throws Exception {
+        Client client = new Client();
+        try (Session session = ContainerProvider.getWebSocketContainer().connectToServer(client, uri)) {
+            Assertions.assertEquals(Message.ACK_MSG.encode(), client.messages.poll(10, TimeUnit.SECONDS));
+
+            long[] elapsed = new long[count];
+            for (int i = 0; i < count; i++) {
+                String content = "hello " + i;
+                String msg = Message.createRoomMessage("junkyplace", "user1", "bob", content).encode();
+
+                long start = System.nanoTime();
+                session.getBasicRemote().sendText(msg);
+                String reply = client.messages.poll(10, TimeUnit.SECONDS);
+                elapsed[i] = System.nanoTime() - start;
+
+                Assertions.assertNotNull(reply, "No reply for " + content);
+                Assertions.assertTrue(reply.contains("\"content\":\"" + content + "\""), reply);
+            }
+            return elapsed;
+        }
+    }
+
+    void report(String name, long[] elapsed) {
+        Arrays.sort(elapsed);
+        long total = Arrays.stream(elapsed).sum();
+        System.out.printf("%-8s: %d round trips, mean=%dµs, p50=%dµs, p99=%dµs, max=%dµs%n", name, elapsed.length,
+                TimeUnit.NANOSECONDS.toMicros(total / elapsed.length),
+                TimeUnit.NANOSECONDS.toMicros(elapsed[elapsed.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(elapsed[elapsed.length * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMicros(elapsed[elapsed.length - 1]));
+    }
+
+    @ClientEndpoint
+    public static class Client {
+        final LinkedBlockingDeque<String> messages = new LinkedBlockingDeque<>();
+
+        @OnMessage
+        void message(String msg) {
+            messages.add(msg);
+        }
+    }
+
+    public static class VertxEnabled implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("junkyplace.websocket.vertx.enabled", "true");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.Room;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightEventsTest {
+
+    @Test
+    public void testEventsRecorded() throws Exception {
+        Path dump = Files.createTempFile("junkyplace", ".jfr");
+        List<Message> sent = new ArrayList<>();
+        String frame = Message.createRoomMessage("junkyplace", "user1", "bob", "/Look teddy").encode();
+
+        try (Recording recording = new Recording()) {
+            recording.enable("junkyplace.Handle").withoutThreshold();
+            recording.enable("junkyplace.Decode").withoutThreshold();
+            recording.enable("junkyplace.Encode").withoutThreshold();
+            recording.start();
+
+            Message look = new Message(frame);
+            Room.standalone().handleMessage(look, sent::add);
+
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+        events.forEach(System.out::println);
+
+        Assertions.assertEquals(1, sent.size());
+        RecordedEvent handle = events.stream()
+                .filter(e -> e.getEventType().getName().equals("junkyplace.Handle"))
+                .findFirst().orElseThrow();
+        Assertions.assertEquals("room", handle.getString("target"));
+        Assertions.assertEquals("/look", handle.getString("verb"));
+
+        Assertions.assertTrue(events.stream()
+                .anyMatch(e -> e.getEventType().getName().equals("junkyplace.Decode")
+                        && e.getInt("frameSize") == frame.length()));
+        Assertions.assertTrue(events.stream()
+                .anyMatch(e -> e.getEventType().getName().equals("junkyplace.Encode")
+                        && e.getInt("frameSize") == sent.get(0).encode().length()));
+    }
+}
@@ -0,0 +1,125 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.InboundRing;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+
+public class InboundRingTest {
+    static final int PRODUCERS = 4;
+    static final int MESSAGES = 200_000;
+
+    static final Message MESSAGE = Message.createRoomMessage("junkyplace", "user1", "bob", "hello");
+
+    @Test
+    public void testOrderedPerSource() throws Exception {
+        int perProducer = 20_000;
+        int[] lastSeen = new int[PRODUCERS];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(PRODUCERS * perProducer);
+
+        // Each producer is a source; its messages carry an increasing count in the target id
+        try (InboundRing<Integer> ring = new InboundRing<>("test-inbound", 64, 3, InboundRing.WaitStrategy.PARK,
+                (source, message) -> {
+                    int n = Integer.parseInt(message.getTargetId());
+                    if (n != lastSeen[source] + 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    lastSeen[source] = n;
+                    done.countDown();
+                })) {
+
+            Thread[] producers = new Thread[PRODUCERS];
+            for (int p = 0; p < PRODUCERS; p++) {
+                int source = p;
+                producers[p] = new Thread(() -> {
+                    for (int i = 1; i <= perProducer; i++) {
+                        ring.publish(source, Message.createRoomHello(Integer.toString(i), "user", "bob", 2));
+                    }
+                });
+                producers[p].start();
+            }
+            Assertions.assertTrue(done.await(60, TimeUnit.SECONDS), "messages not all handled");
+            // consumers publish their progress after the last message of a batch is handled
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (ring.backlog() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertEquals(0, ring.backlog());
+        }
+        Assertions.assertEquals(0, outOfOrder.get());
+        for (int last : lastSeen) {
+            Assertions.assertEquals(perProducer, last);
+        }
+    }
+
+    /**
+     * Compare hand-off throughput with a LinkedBlockingQueue (which allocates
+     * a node for every message) and one consumer thread.
+     */
+    @Test
+    @Tag("benchmark")
+    public void testThroughputComparedToQueue() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            long ring = measureRing();
+            long queue = measureQueue();
+            System.out.printf("ring: %d ns/msg, LinkedBlockingQueue: %d ns/msg%n",
+                    ring / MESSAGES, queue / MESSAGES);
+        }
+    }
+
+    long measureRing() throws Exception {
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        try (InboundRing<Integer> ring = new InboundRing<>("bench-inbound", 4096, 1, InboundRing.WaitStrategy.PARK,
+                (source, message) -> done.countDown())) {
+            return produce(done, () -> ring.publish(1, MESSAGE));
+        }
+    }
+
+    long measureQueue() throws Exception {
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(4096);
+        Thread consumer = new Thread(() -> {
+            try {
+                while (done.getCount() > 0) {
+                    queue.take();
+                    done.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+        return produce(done, () -> {
+            try {
+                queue.put(MESSAGE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    long produce(CountDownLatch done, Runnable publish) throws Exception {
+        long start = System.nanoTime();
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < MESSAGES / PRODUCERS; i++) {
+                    publish.run();
+                }
+            });
+            producers[p].start();
+        }
+        Assertions.assertTrue(done.await(60, TimeUnit.SECONDS), "messages not all handled");
+        return System.nanoTime() - start;
+    }
+}
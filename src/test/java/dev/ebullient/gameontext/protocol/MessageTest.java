@@ -1,9 +1,14 @@
 package dev.ebullient.gameontext.protocol;
 
+import java.util.Set;
+
+import javax.websocket.DecodeException;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import dev.ebullient.gameontext.junkyplace.RoomDescription;
+import dev.ebullient.gameontext.junkyplace.protocol.EventWriter;
 import dev.ebullient.gameontext.junkyplace.protocol.Message;
 
 public class MessageTest {
@@ -174,6 +179,67 @@ public class MessageTest {
         Assertions.assertEquals(m1, m2);
     }
 
+    @Test
+    public void testBroadcastEventVariants() throws Exception {
+        Message m1 = Message.createBroadcastEvent("EVERYTHING", "user1", "Message for user1", "user2", "Hi \"2\"");
+        String s = m1.encode();
+        System.out.println(s);
+
+        EventWriter.Variants variants = m1.getVariants();
+        Assertions.assertNotNull(variants);
+        Assertions.assertSame(variants, m1.getVariants(), "variants should be split once");
+        Assertions.assertEquals(2, variants.size());
+
+        String bookmark = s.substring(s.indexOf("\"bookmark\""));
+        String general = variants.getGeneral().encode();
+        System.out.println(general);
+        Assertions.assertEquals("player,*,{\"type\":\"event\",\"content\":{\"*\":\"EVERYTHING\"}," + bookmark, general);
+
+        Assertions.assertEquals("user2", variants.getUserId(1));
+        String targeted = variants.getTargeted(1).encode();
+        System.out.println(targeted);
+        Assertions.assertEquals("player,user2,{\"type\":\"event\",\"content\":{\"user2\":\"Hi \\\"2\\\"\"}," + bookmark,
+                targeted);
+
+        Assertions.assertNull(Message.createBroadcastEvent("EVERYTHING").getVariants());
+        Assertions.assertNull(Message.createSpecificEvent("user1", "Message for user1").getVariants());
+    }
+
+    @Test
+    public void testUnknownTarget() throws Exception {
+        DecodeException e = Assertions.assertThrows(DecodeException.class,
+                () -> new Message("roomHug,junkyplace,{\"userId\":\"user1\"}"));
+        Assertions.assertTrue(e.getMessage().contains("roomHug"), e.getMessage());
+        Assertions.assertThrows(DecodeException.class, () -> new Message("{\"userId\":\"user1\"}"));
+    }
+
+    @Test
+    public void testSelectVariantForSession() throws Exception {
+        Message m1 = Message.createBroadcastEvent("EVERYTHING", "user1", "Message for user1", "user2", "Hi 2");
+        EventWriter.Variants variants = m1.getVariants();
+
+        Assertions.assertSame(variants.getGeneral(), variants.select(Set.of(), m1));
+        Assertions.assertSame(variants.getGeneral(), variants.select(Set.of("user3"), m1));
+        Assertions.assertSame(variants.getTargeted(1), variants.select(Set.of("user2"), m1));
+
+        // Two players joined on one session: neither split frame has everything they should see
+        Assertions.assertSame(m1, variants.select(Set.of("user1", "user3"), m1));
+        Assertions.assertSame(m1, variants.select(Set.of("user1", "user2"), m1));
+    }
+
+    @Test
+    public void testCreateLocationMessagePreEncoded() throws Exception {
+        RoomDescription roomDescription = new RoomDescription();
+        String payload = Message.toLocationPayload(roomDescription);
+
+        Message m1 = Message.createLocationMessage("user1", payload);
+        Assertions.assertEquals(Message.createLocationMessage("user1", roomDescription), m1);
+        Assertions.assertSame(m1.encode(), m1.encode(), "encoded frame should be reused");
+
+        Message m2 = new Message(m1.encode());
+        Assertions.assertEquals(m1, m2);
+    }
+
     @Test
     public void testCreatePlayerLocationMessage() throws Exception {
         Message m1 = Message.createExitMessage("user1", "N", "So long, and thanks for all the fish");
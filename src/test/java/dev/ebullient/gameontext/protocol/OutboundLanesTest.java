@@ -0,0 +1,139 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.RoomDescription;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.OutboundLanes;
+import dev.ebullient.gameontext.junkyplace.protocol.OutboundLanes.Lane;
+
+public class OutboundLanesTest {
+
+    final AtomicLong clock = new AtomicLong();
+
+    static Message chat(int i) {
+        return Message.createChatMessage("bob", "chat " + i);
+    }
+
+    static Message event(int i) {
+        return Message.createBroadcastEvent("event " + i);
+    }
+
+    static Message exit(int i) {
+        return Message.createExitMessage("user1", "exit" + i);
+    }
+
+    /** Drain the queue as sends complete, in the order messages would be sent */
+    static List<Message> drain(OutboundLanes.Queue queue) {
+        List<Message> sent = new ArrayList<>();
+        Message m;
+        while ((m = queue.next()) != null) {
+            sent.add(m);
+        }
+        return sent;
+    }
+
+    @Test
+    public void testLanes() {
+        Assertions.assertEquals(Lane.CONTROL, Lane.of(Message.ACK_MSG));
+        Assertions.assertEquals(Lane.CONTROL, Lane.of(exit(1)));
+        Assertions.assertEquals(Lane.CONTROL, Lane.of(Message.createLocationMessage("user1",
+                new RoomDescription())));
+        Assertions.assertEquals(Lane.EVENT, Lane.of(event(1)));
+        Assertions.assertEquals(Lane.EVENT, Lane.of(Message.createSpecificEvent("user1", "hi")));
+        Assertions.assertEquals(Lane.CHAT, Lane.of(chat(1)));
+        Assertions.assertEquals("chat", Lane.CHAT.tag());
+    }
+
+    @Test
+    public void testPriority() {
+        OutboundLanes lanes = new OutboundLanes(8, 100, clock::get);
+        OutboundLanes.Queue queue = lanes.newQueue();
+
+        // Chat and events carry a bookmark: keep the instances to compare
+        Message[] chat = { chat(0), chat(1), chat(2) };
+        Message event = event(1);
+        Assertions.assertSame(chat[0], queue.offer(chat[0]), "nothing in progress: send now");
+        Assertions.assertNull(queue.offer(chat[1]));
+        Assertions.assertNull(queue.offer(event));
+        Assertions.assertNull(queue.offer(chat[2]));
+        Assertions.assertNull(queue.offer(exit(1)));
+        Assertions.assertEquals(2, lanes.getWaiting(Lane.CHAT));
+
+        clock.set(1000);
+        List<Message> sent = drain(queue);
+        Assertions.assertEquals(List.of(exit(1), event, chat[1], chat[2]), sent);
+        Assertions.assertEquals(0, lanes.getWaiting(Lane.CHAT));
+        Assertions.assertEquals(3, lanes.getSent(Lane.CHAT));
+        Assertions.assertEquals(2000, lanes.getWaitNanos(Lane.CHAT));
+
+        // Nothing in progress again
+        Message next = exit(2);
+        Assertions.assertSame(next, queue.offer(next));
+    }
+
+    @Test
+    public void testStarvation() {
+        OutboundLanes lanes = new OutboundLanes(3, 100, clock::get);
+        OutboundLanes.Queue queue = lanes.newQueue();
+
+        Message chat = chat(1);
+        queue.offer(exit(0));
+        queue.offer(chat);
+        for (int i = 1; i <= 7; i++) {
+            queue.offer(exit(i));
+        }
+
+        List<Message> sent = drain(queue);
+        Assertions.assertEquals(List.of(exit(1), exit(2), exit(3), chat, exit(4), exit(5), exit(6), exit(7)), sent);
+        Assertions.assertEquals(1, lanes.getRelieved());
+    }
+
+    @Test
+    public void testDropOldestLowest() {
+        OutboundLanes lanes = new OutboundLanes(8, 3, clock::get);
+        OutboundLanes.Queue queue = lanes.newQueue();
+
+        queue.offer(exit(0));
+        queue.offer(chat(1));
+        queue.offer(event(1));
+        queue.offer(chat(2));
+        queue.offer(exit(1)); // drops chat 1
+        queue.offer(event(2)); // drops chat 2
+        queue.offer(chat(3)); // nothing less important: dropped
+        Assertions.assertEquals(3, lanes.getDropped(Lane.CHAT));
+
+        queue.offer(exit(2)); // drops event 1
+        queue.offer(exit(3)); // drops event 2
+        queue.offer(exit(4)); // only control waiting: queued anyway
+        Assertions.assertEquals(2, lanes.getDropped(Lane.EVENT));
+        Assertions.assertEquals(0, lanes.getDropped(Lane.CONTROL));
+
+        Assertions.assertEquals(List.of(exit(1), exit(2), exit(3), exit(4)), drain(queue));
+    }
+
+    @Test
+    public void testClear() {
+        OutboundLanes lanes = new OutboundLanes(8, 100, clock::get);
+        OutboundLanes.Queue queue = lanes.newQueue();
+
+        queue.offer(exit(0));
+        queue.offer(chat(1));
+        queue.offer(event(1));
+        queue.clear();
+        Assertions.assertEquals(0, lanes.getWaiting(Lane.CHAT));
+        Assertions.assertEquals(0, lanes.getWaiting(Lane.EVENT));
+        Assertions.assertNull(queue.next());
+
+        // Nothing is being sent after a clear
+        queue.offer(exit(1));
+        queue.clear();
+        Message next = exit(2);
+        Assertions.assertSame(next, queue.offer(next));
+    }
+}
@@ -0,0 +1,99 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.ParallelFanout;
+import dev.ebullient.gameontext.junkyplace.protocol.SessionRegistry;
+
+public class ParallelFanoutTest {
+    static final int BROADCASTS = 40;
+
+    @Test
+    public void testVisitsEverySessionOnce() throws Exception {
+        SessionRegistry<Integer, Integer> registry = registry(5000);
+        AtomicLongArray visits = new AtomicLongArray(5000);
+
+        try (ParallelFanout fanout = new ParallelFanout(4, 100)) {
+            fanout.forEach(registry, i -> visits.incrementAndGet(i));
+        }
+        for (int i = 0; i < visits.length(); i++) {
+            Assertions.assertEquals(1, visits.get(i), "session " + i);
+        }
+    }
+
+    @Test
+    public void testSmallBroadcastStaysInline() throws Exception {
+        SessionRegistry<Integer, Integer> registry = registry(10);
+        Thread caller = Thread.currentThread();
+        AtomicInteger elsewhere = new AtomicInteger();
+
+        try (ParallelFanout fanout = new ParallelFanout(4, 100)) {
+            fanout.forEach(registry, i -> {
+                if (Thread.currentThread() != caller) {
+                    elsewhere.incrementAndGet();
+                }
+            });
+        }
+        Assertions.assertEquals(0, elsewhere.get());
+    }
+
+    /**
+     * Compare how long each session waits for a broadcast (inline vs. split
+     * across the fan-out pool). Each send is simulated with a few microseconds of work.
+     */
+    @Test
+    @Tag("benchmark")
+    public void testBroadcastTailLatency() throws Exception {
+        try (ParallelFanout inline = new ParallelFanout(1, Integer.MAX_VALUE);
+                ParallelFanout parallel = new ParallelFanout(0, 0)) {
+            for (int sessions : new int[] { 100, 1_000, 10_000 }) {
+                SessionRegistry<Integer, Integer> registry = registry(sessions);
+                report("inline", sessions, measure(inline, registry, sessions));
+                report("parallel", sessions, measure(parallel, registry, sessions));
+            }
+        }
+    }
+
+    long[] measure(ParallelFanout fanout, SessionRegistry<Integer, Integer> registry, int sessions) {
+        long[] delays = new long[sessions * BROADCASTS];
+        AtomicInteger next = new AtomicInteger();
+        for (int b = 0; b < BROADCASTS; b++) {
+            long start = System.nanoTime();
+            fanout.forEach(registry, i -> {
+                simulateSend();
+                delays[next.getAndIncrement()] = System.nanoTime() - start;
+            });
+        }
+        return delays;
+    }
+
+    void report(String name, int sessions, long[] delays) {
+        Arrays.sort(delays);
+        System.out.printf("%-8s %6d sessions: p50=%dµs, p99=%dµs, max=%dµs%n", name, sessions,
+                TimeUnit.NANOSECONDS.toMicros(delays[delays.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(delays[delays.length * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMicros(delays[delays.length - 1]));
+    }
+
+    static void simulateSend() {
+        long until = System.nanoTime() + 2_000;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+
+    static SessionRegistry<Integer, Integer> registry(int sessions) {
+        SessionRegistry<Integer, Integer> registry = new SessionRegistry<>(16);
+        for (int i = 0; i < sessions; i++) {
+            registry.put(i, i);
+        }
+        return registry;
+    }
+}
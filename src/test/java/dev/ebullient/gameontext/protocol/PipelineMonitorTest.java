@@ -0,0 +1,100 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.PipelineMonitor;
+
+public class PipelineMonitorTest {
+
+    @Test
+    public void testHandlers() throws Exception {
+        AtomicLong clock = new AtomicLong(1_000);
+        PipelineMonitor monitor = new PipelineMonitor(clock::get);
+
+        PipelineMonitor.Handler handler = monitor.handlerStarted();
+        Assertions.assertEquals(1, monitor.getHandlersInFlight());
+
+        // A handler on another thread gets stuck
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread stuck = new Thread(() -> {
+            PipelineMonitor.Handler h = monitor.handlerStarted();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            h.done();
+        });
+        stuck.start();
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        handler.done();
+        clock.addAndGet(500);
+        Assertions.assertEquals(1, monitor.getHandlersInFlight());
+        Assertions.assertEquals(500, monitor.getLongestHandlerTime());
+
+        release.countDown();
+        stuck.join();
+        Assertions.assertEquals(0, monitor.getHandlersInFlight());
+        Assertions.assertEquals(0, monitor.getLongestHandlerTime());
+    }
+
+    @Test
+    public void testSends() {
+        PipelineMonitor monitor = new PipelineMonitor(System::nanoTime);
+        for (int i = 0; i < 10; i++) {
+            monitor.sendStarted();
+        }
+        Assertions.assertEquals(10, monitor.getPendingSends());
+
+        for (int i = 0; i < 8; i++) {
+            monitor.sendCompleted(i % 4 == 0);
+        }
+        Assertions.assertEquals(2, monitor.getPendingSends());
+        Assertions.assertEquals(8, monitor.getSends());
+        Assertions.assertEquals(2, monitor.getSendFailures());
+    }
+
+    @Test
+    public void testAwaitIdle() throws Exception {
+        PipelineMonitor monitor = new PipelineMonitor(System::nanoTime);
+        AtomicInteger waiting = new AtomicInteger(3);
+
+        // Waiting messages are sent one after another, as each send completes
+        monitor.sendStarted();
+        Thread sender = new Thread(() -> {
+            while (monitor.getPendingSends() > 0) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (waiting.get() > 0) {
+                    waiting.decrementAndGet();
+                    monitor.sendStarted();
+                }
+                monitor.sendCompleted(false);
+            }
+        });
+        sender.start();
+        Assertions.assertTrue(monitor.awaitIdle(Duration.ofSeconds(10), waiting::get));
+        Assertions.assertEquals(0, waiting.get());
+        Assertions.assertEquals(4, monitor.getSends());
+        sender.join();
+
+        // A send that never completes
+        monitor.sendStarted();
+        long start = System.nanoTime();
+        Assertions.assertFalse(monitor.awaitIdle(Duration.ofMillis(50), () -> 0));
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(50).toNanos());
+    }
+}
@@ -0,0 +1,180 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.websocket.ClientEndpoint;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.ClusterFanout;
+import dev.ebullient.gameontext.junkyplace.protocol.LoopbackRoomBus;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+
+@QuarkusTest
+public class RoomEndpointTest {
+    static final int CONNECTIONS = 20;
+    static final LinkedBlockingDeque<String> MESSAGES = new LinkedBlockingDeque<>();
+
+    @TestHTTPResource("/junkyplace/room")
+    URI uri;
+
+    @Inject
+    LoopbackRoomBus bus;
+
+    @BeforeEach
+    public void clear() {
+        MESSAGES.clear();
+    }
+
+    @Test
+    public void testTimeToFirstAck() throws Exception {
+        long[] elapsed = new long[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            long start = System.nanoTime();
+            try (Session session = ContainerProvider.getWebSocketContainer().connectToServer(Client.class, uri)) {
+                String ack = MESSAGES.poll(10, TimeUnit.SECONDS);
+                elapsed[i] = System.nanoTime() - start;
+                Assertions.assertEquals(Message.ACK_MSG.encode(), ack);
+            }
+        }
+
+        // The first connection is the cold one: that is what players see after a scale from zero
+        long first = elapsed[0];
+        Arrays.sort(elapsed);
+        System.out.printf("Time to first ack: first=%dµs, median=%dµs, max=%dµs%n",
+                TimeUnit.NANOSECONDS.toMicros(first),
+                TimeUnit.NANOSECONDS.toMicros(elapsed[CONNECTIONS / 2]),
+                TimeUnit.NANOSECONDS.toMicros(elapsed[CONNECTIONS - 1]));
+    }
+
+    @Test
+    public void testWhisperOnlyToRecipient() throws Exception {
+        LinkedBlockingDeque<String> alice = new LinkedBlockingDeque<>();
+        LinkedBlockingDeque<String> bob = new LinkedBlockingDeque<>();
+        try (Session a = connect(alice); Session b = connect(bob)) {
+            Assertions.assertEquals(Message.ACK_MSG.encode(), alice.poll(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(Message.ACK_MSG.encode(), bob.poll(10, TimeUnit.SECONDS));
+
+            a.getBasicRemote().sendText(Message.createRoomHello("junkyplace", "whisper-a", "Alice W", 2).encode());
+            b.getBasicRemote().sendText(Message.createRoomHello("junkyplace", "whisper-b", "Bob W", 2).encode());
+            Assertions.assertNotNull(poll(bob, "Bob W is here"));
+
+            a.getBasicRemote().sendText(
+                    Message.createRoomMessage("junkyplace", "whisper-a", "Alice W", "/whisper bob w Nice socks").encode());
+            String whisper = poll(bob, "Alice W whispers: Nice socks");
+            Assertions.assertNotNull(whisper);
+            Assertions.assertTrue(whisper.startsWith("player,whisper-b,"), whisper);
+            Assertions.assertNotNull(poll(alice, "You whisper to Bob W: Nice socks"));
+
+            // Each whisper went only to the session of the player it was for
+            List<String> rest = new ArrayList<>(alice);
+            rest.addAll(bob);
+            rest.forEach(m -> Assertions.assertFalse(m.contains("whisper"), m));
+
+            a.getBasicRemote().sendText(Message.createRoomGoodbye("junkyplace", "whisper-a", "Alice W").encode());
+            b.getBasicRemote().sendText(Message.createRoomGoodbye("junkyplace", "whisper-b", "Bob W").encode());
+        }
+    }
+
+    @Test
+    public void testWhisperNotForwarded() throws Exception {
+        // A second replica of the room, joined to this one by an in-memory bus
+        LoopbackRoomBus peer = bus.join();
+        List<String> forwarded = new CopyOnWriteArrayList<>();
+        ClusterFanout replica = new ClusterFanout(peer, 256, forwarded::add);
+
+        LinkedBlockingDeque<String> alice = new LinkedBlockingDeque<>();
+        LinkedBlockingDeque<String> bob = new LinkedBlockingDeque<>();
+        try (Session a = connect(alice); Session b = connect(bob)) {
+            Assertions.assertEquals(Message.ACK_MSG.encode(), alice.poll(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(Message.ACK_MSG.encode(), bob.poll(10, TimeUnit.SECONDS));
+
+            a.getBasicRemote().sendText(Message.createRoomHello("junkyplace", "forward-a", "Alice F", 2).encode());
+            b.getBasicRemote().sendText(Message.createRoomHello("junkyplace", "forward-b", "Bob F", 2).encode());
+            Assertions.assertNotNull(poll(bob, "Bob F is here"));
+            a.getBasicRemote().sendText(
+                    Message.createRoomMessage("junkyplace", "forward-a", "Alice F", "/whisper bob f Secret plans").encode());
+            Assertions.assertNotNull(poll(bob, "Alice F whispers: Secret plans"));
+            a.getBasicRemote().sendText(
+                    Message.createRoomMessage("junkyplace", "forward-a", "Alice F", "Public chatter").encode());
+            Assertions.assertNotNull(poll(bob, "Public chatter"));
+
+            // Broadcasts reach the other replica; the whisper (and its echo to Alice) don't
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (forwarded.stream().noneMatch(f -> f.contains("Public chatter")) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertTrue(forwarded.stream().anyMatch(f -> f.contains("Bob F is here")), forwarded.toString());
+            Assertions.assertTrue(forwarded.stream().anyMatch(f -> f.contains("Public chatter")), forwarded.toString());
+            forwarded.forEach(f -> Assertions.assertFalse(f.contains("Secret plans"), f));
+
+            // A whisper from the other replica, for a player who joined there, isn't shown to anyone here
+            replica.forward(Message.createSpecificEvent("elsewhere", "Psst, over here").encode());
+            replica.forward(Message.createBroadcastEvent("Everyone hears this").encode());
+            replica.flush();
+            assertNoneBefore(alice, "Everyone hears this", "Psst");
+            assertNoneBefore(bob, "Everyone hears this", "Psst");
+
+            a.getBasicRemote().sendText(Message.createRoomGoodbye("junkyplace", "forward-a", "Alice F").encode());
+            b.getBasicRemote().sendText(Message.createRoomGoodbye("junkyplace", "forward-b", "Bob F").encode());
+        }
+    }
+
+    Session connect(LinkedBlockingDeque<String> messages) throws Exception {
+        return ContainerProvider.getWebSocketContainer().connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                session.addMessageHandler(String.class, messages::add);
+            }
+        }, ClientEndpointConfig.Builder.create().build(), uri);
+    }
+
+    /** @return the first message containing the text (earlier messages are discarded), or null */
+    static String poll(LinkedBlockingDeque<String> messages, String text) throws InterruptedException {
+        String m;
+        while ((m = messages.poll(10, TimeUnit.SECONDS)) != null) {
+            if (m.contains(text)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /** Wait for a message containing the text, checking none of the messages before it contain another */
+    static void assertNoneBefore(LinkedBlockingDeque<String> messages, String text, String unwanted)
+            throws InterruptedException {
+        String m;
+        while ((m = messages.poll(10, TimeUnit.SECONDS)) != null) {
+            Assertions.assertFalse(m.contains(unwanted), m);
+            if (m.contains(text)) {
+                return;
+            }
+        }
+        Assertions.fail("No message containing " + text);
+    }
+
+    @ClientEndpoint
+    public static class Client {
+        @OnMessage
+        void message(String msg) {
+            MESSAGES.add(msg);
+        }
+    }
+}
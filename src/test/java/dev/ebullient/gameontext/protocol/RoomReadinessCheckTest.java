@@ -0,0 +1,44 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.RoomReadinessCheck;
+
+public class RoomReadinessCheckTest {
+    static final double MAX_RATE = 0.5;
+    static final long WINDOW = Duration.ofSeconds(30).toNanos();
+
+    @Test
+    public void testReadyAgainAfterQuietWindow() {
+        RoomReadinessCheck.FailureRate rate = new RoomReadinessCheck.FailureRate(Duration.ofSeconds(30), 20);
+        long now = WINDOW;
+
+        // First window: 40 sends, 30 failed: not ready
+        double r = rate.update(now, 40, 30);
+        Assertions.assertEquals(0.75, r, 0.001);
+        Assertions.assertTrue(r > MAX_RATE, "down");
+
+        // Within the window, the rate isn't recomputed
+        Assertions.assertEquals(0.75, rate.update(now + WINDOW / 2, 45, 35), 0.001);
+
+        // Traffic moves elsewhere: a whole window with only a few sends (all failing)
+        now += WINDOW;
+        r = rate.update(now, 45, 35);
+        Assertions.assertEquals(0, r, 0.001);
+        Assertions.assertTrue(r <= MAX_RATE, "up again");
+
+        // Traffic returns, mostly succeeding
+        now += WINDOW;
+        Assertions.assertEquals(0.1, rate.update(now, 145, 45), 0.001);
+    }
+
+    @Test
+    public void testNotJudgedOnTooFewSends() {
+        RoomReadinessCheck.FailureRate rate = new RoomReadinessCheck.FailureRate(Duration.ofSeconds(30), 20);
+        Assertions.assertEquals(0, rate.update(WINDOW, 5, 5), 0.001);
+        Assertions.assertEquals(0, rate.update(2 * WINDOW, 10, 10), 0.001);
+    }
+}
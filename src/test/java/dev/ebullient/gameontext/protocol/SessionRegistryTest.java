@@ -0,0 +1,77 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.SessionRegistry;
+
+public class SessionRegistryTest {
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        SessionRegistry<String, String> registry = new SessionRegistry<>(3);
+        Assertions.assertEquals(4, registry.shardCount(), "shards should be a power of two");
+
+        for (int i = 0; i < 100; i++) {
+            registry.put("s" + i, "v" + i);
+        }
+        registry.put("s5", "replaced");
+        Assertions.assertEquals(100, registry.size());
+        Assertions.assertEquals("replaced", registry.get("s5"));
+
+        Assertions.assertEquals("v7", registry.remove("s7"));
+        Assertions.assertNull(registry.remove("s7"));
+        Assertions.assertNull(registry.get("s7"));
+        Assertions.assertEquals(99, registry.size());
+
+        Set<String> seen = new HashSet<>();
+        int total = 0;
+        for (int i = 0; i < registry.shardCount(); i++) {
+            registry.forEach(i, seen::add);
+            total += registry.size(i);
+        }
+        Assertions.assertEquals(99, seen.size());
+        Assertions.assertEquals(99, total);
+        Assertions.assertTrue(seen.contains("replaced"));
+        Assertions.assertFalse(seen.contains("v7"));
+    }
+
+    @Test
+    public void testConcurrentChanges() throws Exception {
+        SessionRegistry<Integer, Integer> registry = new SessionRegistry<>(8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int base = t * 10_000;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        registry.put(base + i, base + i);
+                        if (i % 2 == 1) {
+                            registry.remove(base + i);
+                        }
+                        // iteration should never see a partially updated shard
+                        registry.forEach(v -> Assertions.assertNotNull(v));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(20_000, registry.size());
+        registry.forEach(v -> Assertions.assertEquals(0, v % 2));
+    }
+}
@@ -0,0 +1,88 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import dev.ebullient.gameontext.junkyplace.protocol.SlowLog;
+
+public class SlowLogTest {
+
+    final AtomicLong clock = new AtomicLong(1);
+
+    static void record(SlowLog log, long nanos) {
+        if (log.isSlow(nanos)) {
+            log.record(SlowLog.Kind.HANDLE, "room", "/look", "user1", nanos, 10, 2);
+        }
+    }
+
+    static List<Long> durations(SlowLog log) {
+        return log.getSlowest().stream().map(SlowLog.Entry::getNanos).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testKeepsSlowest() {
+        SlowLog log = new SlowLog(3, Duration.ofNanos(400), clock::get);
+        for (long nanos : new long[] { 5, 1, 9, 3, 7, 2, 8 }) {
+            record(log, nanos);
+        }
+        Assertions.assertEquals(List.of(9L, 8L, 7L), durations(log));
+        Assertions.assertFalse(log.isSlow(7), "no faster than anything kept");
+        Assertions.assertTrue(log.isSlow(10));
+
+        SlowLog.Entry slowest = log.getSlowest().get(0);
+        Assertions.assertEquals(SlowLog.Kind.HANDLE, slowest.getKind());
+        Assertions.assertEquals("/look", slowest.getVerb());
+        Assertions.assertEquals(Integer.toHexString("user1".hashCode()), slowest.getUser());
+        Assertions.assertEquals(2, slowest.getRecipients());
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        // 4 slices of 100ns
+        SlowLog log = new SlowLog(2, Duration.ofNanos(400), clock::get);
+        record(log, 50);
+        record(log, 40);
+
+        clock.set(150); // next slice: starts empty
+        Assertions.assertTrue(log.isSlow(1));
+        record(log, 10);
+        Assertions.assertEquals(List.of(50L, 40L), durations(log), "merged across the window");
+
+        clock.set(420); // first slice has left the window
+        Assertions.assertEquals(List.of(10L), durations(log));
+
+        clock.set(1000);
+        Assertions.assertEquals(List.of(), durations(log));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        SlowLog log = new SlowLog(16, Duration.ofMinutes(1), clock::get);
+        int threads = 4;
+        int perThread = 100_000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    record(log, (long) i * threads + offset);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        List<Long> slowest = durations(log);
+        Assertions.assertEquals(16, slowest.size());
+        long max = (long) perThread * threads - 1;
+        for (int i = 0; i < slowest.size(); i++) {
+            Assertions.assertEquals(max - i, (long) slowest.get(i));
+        }
+    }
+}
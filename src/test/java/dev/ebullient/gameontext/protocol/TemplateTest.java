@@ -0,0 +1,100 @@
+package dev.ebullient.gameontext.protocol;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.ebullient.gameontext.junkyplace.protocol.EventWriter;
+import dev.ebullient.gameontext.junkyplace.protocol.Message;
+import dev.ebullient.gameontext.junkyplace.protocol.Template;
+
+public class TemplateTest {
+
+    @Test
+    public void testFormat() {
+        Template t = Template.compile("{username} picks up {item}, {username}!", "username", "item");
+        Assertions.assertEquals("bob picks up the teddy, bob!", t.format("bob", "the teddy"));
+
+        Template plain = Template.compile("No {slots} here");
+        Assertions.assertEquals("No {slots} here", plain.format("ignored"));
+
+        Template edges = Template.compile("{a}{", "a");
+        Assertions.assertEquals("x{", edges.format("x"));
+    }
+
+    @Test
+    public void testAtMostTwoParameters() {
+        Template two = Template.compile("{b} then {a}", "a", "b");
+        Assertions.assertEquals("2 then 1", two.format("1", "2"));
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Template.compile("{a} {b} {c}", "a", "b", "c"));
+    }
+
+    @Test
+    public void testRenderEscapesJson() throws Exception {
+        Template t = Template.compile("\"{username}\" said \\ hi\n", "username");
+        StringBuilder out = new StringBuilder("\"");
+        t.render(out, "bob \"the\" \u0001builder");
+        out.append('"');
+        System.out.println(out);
+
+        String parsed = new ObjectMapper().readValue(out.toString(), String.class);
+        Assertions.assertEquals("\"bob \"the\" \u0001builder\" said \\ hi\n", parsed);
+    }
+
+    @Test
+    public void testEventWriter() throws Exception {
+        Template hello = Template.compile("{username} is here", "username");
+        Message m1 = EventWriter.broadcast()
+                .all(hello, "Bob \"B\"")
+                .user("user1", "Welcome!")
+                .build();
+        String s = m1.encode();
+        System.out.println(s);
+
+        Assertions.assertTrue(s.startsWith("player,*,{\"type\":\"event\",\"content\":{\"*\":"), s);
+
+        Map<?, ?> payload = new ObjectMapper().readValue(s.substring("player,*,".length()), Map.class);
+        Map<?, ?> content = (Map<?, ?>) payload.get("content");
+        Assertions.assertEquals("event", payload.get("type"));
+        Assertions.assertEquals("Bob \"B\" is here", content.get("*"));
+        Assertions.assertEquals("Welcome!", content.get("user1"));
+        Assertions.assertTrue(((String) payload.get("bookmark")).startsWith("JunkyPlace-"), s);
+
+        Message m2 = new Message(s);
+        Assertions.assertEquals(m1, m2);
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void testRenderAllocation() {
+        Template t = Template.compile("This room is a basic model. It doesn't understand `{command}`", "command");
+        String pattern = "This room is a basic model. It doesn't understand `%s`";
+        StringBuilder out = new StringBuilder(128);
+        int n = 200_000;
+
+        for (int warm = 0; warm < 3; warm++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                out.setLength(0);
+                t.render(out, "/dance");
+            }
+            long template = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                out.setLength(0);
+                out.append(String.format(pattern, "/dance"));
+            }
+            long format = System.nanoTime() - start;
+
+            System.out.printf("template: %d ns/op, String.format: %d ns/op%n", template / n, format / n);
+        }
+        Assertions.assertEquals(String.format(pattern, "/dance"), out.toString());
+    }
+}